@@ -0,0 +1,151 @@
+package com.starcut.starflight_client_android;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Cancellation state of a unit of background work. The blocking call the work is currently making registers a
+ * listener that unblocks it, for example by aborting an HTTP request, so that cancelling frees the worker thread right
+ * away instead of when the call would have returned by itself.</p>
+ *
+ * <p>Work is cancelled either explicitly or because its deadline passed. Only work that timed out is retried.</p>
+ */
+class Cancellation
+{
+	/**
+	 * Unblocks the call currently made by the cancelled work
+	 */
+	interface Listener
+	{
+		void onCancel();
+	}
+
+	private boolean cancelled;
+	private boolean timedOut;
+	private Listener listener;
+	private ScheduledFuture<?> deadline;
+
+	/**
+	 * Cancels the work, notifying the current listener
+	 * @param timedOut whether the work is cancelled because its deadline passed
+	 * @return false if the work was already cancelled
+	 */
+	boolean cancel(boolean timedOut)
+	{
+		Listener current;
+
+		synchronized (this)
+		{
+			if (cancelled)
+			{
+				return false;
+			}
+
+			cancelled = true;
+			this.timedOut = timedOut;
+			current = listener;
+			listener = null;
+		}
+
+		if (current != null)
+		{
+			current.onCancel();
+		}
+
+		return true;
+	}
+
+	synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Tells if the work was cancelled because its deadline passed
+	 */
+	synchronized boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Sets the listener that unblocks the current call, or null when the call has returned. If the work is already
+	 * cancelled the listener is notified right away.
+	 */
+	void setListener(Listener listener)
+	{
+		synchronized (this)
+		{
+			if (!cancelled || listener == null)
+			{
+				this.listener = listener;
+				return;
+			}
+		}
+
+		listener.onCancel();
+	}
+
+	/**
+	 * Cancels the work once the supplied time has passed, unless it completes first
+	 * @param timeout the time in milliseconds, or 0 for no deadline
+	 */
+	void cancelAfter(long timeout)
+	{
+		if (timeout <= 0)
+		{
+			return;
+		}
+
+		ScheduledFuture<?> scheduled = StarFlightExecutors.getTimeoutScheduler().schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				cancel(true);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		synchronized (this)
+		{
+			if (deadline != null)
+			{
+				deadline.cancel(false);
+			}
+
+			deadline = scheduled;
+		}
+	}
+
+	/**
+	 * Stops the deadline of work that has completed
+	 */
+	synchronized void complete()
+	{
+		if (deadline != null)
+		{
+			deadline.cancel(false);
+			deadline = null;
+		}
+	}
+
+	/**
+	 * Throws if the work has been cancelled
+	 */
+	void throwIfCancelled() throws InterruptedIOException
+	{
+		if (isCancelled())
+		{
+			throw newException();
+		}
+	}
+
+	/**
+	 * Creates the exception with which a cancelled call fails
+	 */
+	InterruptedIOException newException()
+	{
+		return new InterruptedIOException(isTimedOut() ? "Operation timed out" : "Operation cancelled");
+	}
+}
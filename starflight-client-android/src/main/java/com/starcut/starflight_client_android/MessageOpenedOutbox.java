@@ -0,0 +1,238 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persistent queue of message opens that have not been reported to the push server yet. Queued opens are written to
+ * their own preferences file so they survive process death, and are reported in batches instead of one request per
+ * message.
+ */
+class MessageOpenedOutbox
+{
+	/**
+	 * Number of queued opens that triggers an immediate flush
+	 */
+	static final int FLUSH_SIZE = 20;
+
+	/**
+	 * How long in milliseconds an open may wait in the queue before the queue is flushed
+	 */
+	static final long FLUSH_DELAY = 1000 * 15; // 15 seconds
+
+	/**
+	 * Maximum number of message UUIDs reported in a single request
+	 */
+	static final int MAX_BATCH_SIZE = 100;
+
+	private static final String PREFERENCES_NAME = StarFlightClient.class.getSimpleName() + ".outbox";
+	private static final String PROPERTY_PENDING_MESSAGES = "pending_opened_messages_1";
+
+	private final StarFlightNamespace namespace;
+	private final Set<UUID> queued = new LinkedHashSet<>();
+	private final Set<UUID> sending = new HashSet<>();
+	private final Map<UUID, List<StarFlightCallback<MessageOpenedResponse>>> callbacks = new HashMap<>();
+	private boolean loaded;
+
+	MessageOpenedOutbox(StarFlightNamespace namespace)
+	{
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Queues the opening of the supplied message. The callback, if any, is kept until the batch containing the
+	 * message has been reported.
+	 */
+	synchronized void add(Context context, UUID messageUuid, StarFlightCallback<MessageOpenedResponse> callback)
+	{
+		load(context);
+
+		if (callback != null)
+		{
+			List<StarFlightCallback<MessageOpenedResponse>> messageCallbacks = callbacks.get(messageUuid);
+
+			if (messageCallbacks == null)
+			{
+				messageCallbacks = new ArrayList<>(1);
+				callbacks.put(messageUuid, messageCallbacks);
+			}
+
+			messageCallbacks.add(callback);
+		}
+
+		if (!sending.contains(messageUuid) && queued.add(messageUuid))
+		{
+			save(context);
+		}
+	}
+
+	/**
+	 * Removes a callback added with the supplied message, for example because its caller stopped waiting
+	 * @param dequeue whether to also remove the open from the queue if it has not been taken for reporting yet and no
+	 * other callback is waiting for it
+	 */
+	synchronized void remove(Context context, UUID messageUuid, StarFlightCallback<MessageOpenedResponse> callback, boolean dequeue)
+	{
+		List<StarFlightCallback<MessageOpenedResponse>> messageCallbacks = callbacks.get(messageUuid);
+
+		if (messageCallbacks != null)
+		{
+			messageCallbacks.remove(callback);
+
+			if (!messageCallbacks.isEmpty())
+			{
+				return;
+			}
+
+			callbacks.remove(messageUuid);
+		}
+
+		if (dequeue && queued.remove(messageUuid))
+		{
+			save(context);
+		}
+	}
+
+	/**
+	 * Tells how many opens are waiting to be reported
+	 */
+	synchronized int size(Context context)
+	{
+		load(context);
+		return queued.size();
+	}
+
+	/**
+	 * Takes up to {@link #MAX_BATCH_SIZE} queued opens for reporting. The opens stay persisted until
+	 * {@link #complete} is called for the batch.
+	 */
+	synchronized List<UUID> takeBatch(Context context)
+	{
+		return takeBatch(context, MAX_BATCH_SIZE);
+	}
+
+	/**
+	 * Takes up to the supplied number of queued opens for reporting, oldest first, like {@link #takeBatch(Context)}
+	 */
+	synchronized List<UUID> takeBatch(Context context, int maxSize)
+	{
+		load(context);
+
+		List<UUID> batch = new ArrayList<>(Math.min(queued.size(), maxSize));
+		Iterator<UUID> iterator = queued.iterator();
+
+		while (iterator.hasNext() && batch.size() < maxSize)
+		{
+			UUID messageUuid = iterator.next();
+			iterator.remove();
+			sending.add(messageUuid);
+			batch.add(messageUuid);
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Marks a batch returned by {@link #takeBatch} as finished. The opens are either queued again ahead of the opens
+	 * queued since, so that they are the next ones reported, or removed from the queue when they were delivered or
+	 * cannot be delivered at all.
+	 * @return the callbacks waiting for the messages in the batch
+	 */
+	synchronized List<StarFlightCallback<MessageOpenedResponse>> complete(Context context, List<UUID> batch, boolean requeue)
+	{
+		sending.removeAll(batch);
+
+		if (requeue)
+		{
+			List<UUID> later = new ArrayList<>(queued);
+			queued.clear();
+			queued.addAll(batch);
+			queued.addAll(later);
+		}
+		else
+		{
+			save(context);
+		}
+
+		List<StarFlightCallback<MessageOpenedResponse>> batchCallbacks = new ArrayList<>();
+
+		for (UUID messageUuid : batch)
+		{
+			List<StarFlightCallback<MessageOpenedResponse>> messageCallbacks = callbacks.remove(messageUuid);
+
+			if (messageCallbacks != null)
+			{
+				batchCallbacks.addAll(messageCallbacks);
+			}
+		}
+
+		return batchCallbacks;
+	}
+
+	private void load(Context context)
+	{
+		if (loaded)
+		{
+			return;
+		}
+
+		String pending = getPreferences(context).getString(PROPERTY_PENDING_MESSAGES, "");
+
+		if (pending.length() > 0)
+		{
+			for (String messageUuid : pending.split(","))
+			{
+				queued.add(UUID.fromString(messageUuid));
+			}
+		}
+
+		loaded = true;
+	}
+
+	private void save(Context context)
+	{
+		List<UUID> pending = new ArrayList<>(sending.size() + queued.size());
+		pending.addAll(sending);
+		pending.addAll(queued);
+
+		SharedPreferences.Editor editor = getPreferences(context).edit();
+
+		if (pending.isEmpty())
+		{
+			editor.remove(PROPERTY_PENDING_MESSAGES);
+		}
+		else
+		{
+			StringBuilder joined = new StringBuilder(pending.size() * 37);
+
+			for (UUID messageUuid : pending)
+			{
+				if (joined.length() > 0)
+				{
+					joined.append(',');
+				}
+
+				joined.append(messageUuid);
+			}
+
+			editor.putString(PROPERTY_PENDING_MESSAGES, joined.toString());
+		}
+
+		editor.apply();
+	}
+
+	private SharedPreferences getPreferences(Context context)
+	{
+		return namespace.getPreferences(context, PREFERENCES_NAME);
+	}
+}
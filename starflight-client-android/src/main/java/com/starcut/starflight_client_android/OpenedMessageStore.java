@@ -0,0 +1,231 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+/**
+ * Bounded record of the messages whose opening has been reported. The most recent {@link #CAPACITY} message UUIDs
+ * are kept in memory for constant time lookups, older ones are evicted. On disk the record is an append-only log
+ * that is compacted once it grows well past the capacity, so recording an open never rewrites the whole history.
+ */
+class OpenedMessageStore
+{
+	/**
+	 * Maximum number of opened messages remembered
+	 */
+	static final int CAPACITY = 1000;
+
+	private static final String FILE_NAME = "starflight_opened_messages";
+
+	private static final OpenedMessageStore INSTANCE = new OpenedMessageStore();
+
+	private final LinkedHashSet<UUID> openedMessages = new LinkedHashSet<>();
+	private int logLength;
+	private boolean loaded;
+
+	/**
+	 * Gets the store shared by all clients in this process. Message UUIDs are unique across apps, so one record
+	 * serves all of them.
+	 */
+	static OpenedMessageStore getInstance()
+	{
+		return INSTANCE;
+	}
+
+	/**
+	 * Tells if the opening of the message with the supplied UUID has been recorded
+	 */
+	synchronized boolean contains(Context context, UUID messageUuid)
+	{
+		load(context);
+		return openedMessages.contains(messageUuid);
+	}
+
+	/**
+	 * Records the opening of the message with the supplied UUID, evicting the oldest record if the store is full
+	 */
+	synchronized void add(Context context, UUID messageUuid)
+	{
+		load(context);
+
+		if (!openedMessages.add(messageUuid))
+		{
+			return;
+		}
+
+		if (openedMessages.size() > CAPACITY)
+		{
+			Iterator<UUID> oldest = openedMessages.iterator();
+			oldest.next();
+			oldest.remove();
+		}
+
+		if (logLength >= CAPACITY * 2)
+		{
+			compact(context);
+		}
+		else
+		{
+			append(context, messageUuid);
+		}
+	}
+
+	private void load(Context context)
+	{
+		if (loaded)
+		{
+			return;
+		}
+
+		loaded = true;
+		BufferedReader reader = null;
+
+		try
+		{
+			reader = new BufferedReader(new FileReader(getFile(context)));
+			String line;
+
+			while ((line = reader.readLine()) != null)
+			{
+				logLength++;
+
+				try
+				{
+					openedMessages.add(UUID.fromString(line));
+				}
+				catch (IllegalArgumentException e)
+				{
+					// a partially written last line, skip it
+				}
+			}
+		}
+		catch (FileNotFoundException e)
+		{
+			// nothing recorded yet
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to read opened messages", e);
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(reader);
+		}
+
+		boolean migrated = migrateLegacyPreferences(context);
+
+		while (openedMessages.size() > CAPACITY)
+		{
+			Iterator<UUID> oldest = openedMessages.iterator();
+			oldest.next();
+			oldest.remove();
+		}
+
+		if (migrated || logLength > openedMessages.size())
+		{
+			compact(context);
+		}
+	}
+
+	/**
+	 * Moves opened messages recorded by earlier versions in the StarFlight preferences into this store
+	 */
+	private boolean migrateLegacyPreferences(Context context)
+	{
+		SharedPreferences prefs = context.getSharedPreferences(StarFlightClient.class.getSimpleName(), Context.MODE_PRIVATE);
+		String legacy = prefs.getString(StarFlightClient.PROPERTY_OPENED_MESSAGES, null);
+
+		if (legacy == null)
+		{
+			return false;
+		}
+
+		for (String messageUuid : legacy.split(","))
+		{
+			if (messageUuid.length() > 0)
+			{
+				openedMessages.add(UUID.fromString(messageUuid));
+			}
+		}
+
+		prefs.edit().remove(StarFlightClient.PROPERTY_OPENED_MESSAGES).apply();
+		return true;
+	}
+
+	private void append(Context context, UUID messageUuid)
+	{
+		Writer writer = null;
+
+		try
+		{
+			writer = new FileWriter(getFile(context), true);
+			writer.write(messageUuid.toString());
+			writer.write('\n');
+			logLength++;
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to record opened message " + messageUuid, e);
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(writer);
+		}
+	}
+
+	/**
+	 * Rewrites the log so that it only contains the currently remembered messages
+	 */
+	private void compact(Context context)
+	{
+		File file = getFile(context);
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = null;
+
+		try
+		{
+			writer = new FileWriter(temp);
+
+			for (UUID messageUuid : openedMessages)
+			{
+				writer.write(messageUuid.toString());
+				writer.write('\n');
+			}
+
+			writer.close();
+			writer = null;
+
+			if (!temp.renameTo(file))
+			{
+				throw new IOException("Failed to replace " + file);
+			}
+
+			logLength = openedMessages.size();
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to compact opened messages", e);
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(writer);
+		}
+	}
+
+	private static File getFile(Context context)
+	{
+		return new File(context.getFilesDir(), FILE_NAME);
+	}
+}
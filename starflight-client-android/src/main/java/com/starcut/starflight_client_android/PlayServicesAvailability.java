@@ -0,0 +1,117 @@
+package com.starcut.starflight_client_android;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+
+import com.google.android.gms.common.GooglePlayServicesUtil;
+
+/**
+ * Caches whether Google Play Services is available for the lifetime of the process. The cached result is dropped
+ * when the Google Play Services package is installed, updated, enabled, disabled or removed, so the next query checks
+ * again.
+ */
+class PlayServicesAvailability
+{
+	private static final String PLAY_SERVICES_PACKAGE = "com.google.android.gms";
+
+	private static final int NOT_CHECKED = Integer.MIN_VALUE;
+
+	private static final Object LOCK = new Object();
+	private static volatile int status = NOT_CHECKED;
+	private static volatile long checkNanos = -1;
+	private static Context receiverContext;
+
+	private PlayServicesAvailability()
+	{
+	}
+
+	/**
+	 * Gets the availability of Google Play Services as one of the
+	 * {@link com.google.android.gms.common.ConnectionResult} status codes
+	 */
+	static int getStatus(Context context)
+	{
+		int current = status;
+
+		if (current != NOT_CHECKED)
+		{
+			return current;
+		}
+
+		synchronized (LOCK)
+		{
+			if (status == NOT_CHECKED)
+			{
+				Context applicationContext = context.getApplicationContext();
+
+				if (receiverContext != applicationContext)
+				{
+					// the application context is the same for the whole process, so this registers once
+					registerPackageReceiver(applicationContext);
+					receiverContext = applicationContext;
+				}
+
+				long startTime = System.nanoTime();
+				status = GooglePlayServicesUtil.isGooglePlayServicesAvailable(applicationContext);
+
+				if (checkNanos == -1)
+				{
+					checkNanos = System.nanoTime() - startTime;
+				}
+			}
+
+			return status;
+		}
+	}
+
+	/**
+	 * Tells if the availability has been checked and not invalidated since
+	 */
+	static boolean isCached()
+	{
+		return status != NOT_CHECKED;
+	}
+
+	/**
+	 * Drops the cached availability, so that the next query checks again
+	 */
+	static void invalidate()
+	{
+		status = NOT_CHECKED;
+	}
+
+	/**
+	 * Gets how long the first availability check took in nanoseconds, or -1 if there has been none yet
+	 */
+	static long getCheckNanos()
+	{
+		return checkNanos;
+	}
+
+	private static void registerPackageReceiver(Context context)
+	{
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+		filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+		filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+		filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+		filter.addDataScheme("package");
+
+		context.registerReceiver(new BroadcastReceiver()
+		{
+			@Override
+			public void onReceive(Context context, Intent intent)
+			{
+				Uri data = intent.getData();
+
+				if (data != null && PLAY_SERVICES_PACKAGE.equals(data.getSchemeSpecificPart()))
+				{
+					invalidate();
+				}
+			}
+		}, filter);
+	}
+}
@@ -0,0 +1,237 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Remembers the UUIDs of the most recently received messages so that redelivered messages can be recognized. The
+ * UUIDs are kept in a ring buffer, with a hash set next to it for constant time lookups; once the buffer is full each
+ * new UUID replaces the oldest one.</p>
+ *
+ * <p>On disk the buffer is a file of fixed size records, so recording a message only writes its own record and the
+ * position of the buffer, never the whole history.</p>
+ *
+ * <p>There is one filter per window size in the process, each with its own file, so that receivers using different
+ * windows do not replace each other's history.</p>
+ */
+class RecentMessageFilter
+{
+	/**
+	 * Number of recent messages remembered by default
+	 */
+	static final int DEFAULT_CAPACITY = 1000;
+
+	private static final String FILE_NAME = "starflight_recent_messages";
+	private static final Map<Integer, RecentMessageFilter> FILTERS = new HashMap<>();
+	private static final int HEADER_SIZE = 12;
+	private static final int RECORD_SIZE = 16;
+
+	private final int capacity;
+	private final UUID[] ring;
+	private final Set<UUID> recent;
+	private int next;
+	private int count;
+	private boolean loaded;
+
+	/**
+	 * Gets the filter remembering the supplied number of recent messages, creating it on first use
+	 */
+	static synchronized RecentMessageFilter get(int capacity)
+	{
+		RecentMessageFilter filter = FILTERS.get(capacity);
+
+		if (filter == null)
+		{
+			filter = new RecentMessageFilter(capacity);
+			FILTERS.put(capacity, filter);
+		}
+
+		return filter;
+	}
+
+	RecentMessageFilter(int capacity)
+	{
+		this.capacity = capacity;
+		this.ring = new UUID[capacity];
+		this.recent = new HashSet<>(capacity * 2);
+	}
+
+	/**
+	 * Records the receipt of the message with the supplied UUID
+	 * @return false if the message was already received recently
+	 */
+	synchronized boolean add(Context context, UUID messageUuid)
+	{
+		load(context);
+
+		if (!recent.add(messageUuid))
+		{
+			return false;
+		}
+
+		if (count == capacity)
+		{
+			recent.remove(ring[next]);
+		}
+		else
+		{
+			count++;
+		}
+
+		int index = next;
+		ring[index] = messageUuid;
+		next = (next + 1) % capacity;
+		write(context, index);
+		return true;
+	}
+
+	private void load(Context context)
+	{
+		if (loaded)
+		{
+			return;
+		}
+
+		loaded = true;
+		File file = getFile(context);
+
+		if (!file.exists())
+		{
+			return;
+		}
+
+		RandomAccessFile in = null;
+		boolean corrupt = false;
+
+		try
+		{
+			in = new RandomAccessFile(file, "r");
+			int storedCapacity = in.readInt();
+			int storedNext = in.readInt();
+			int storedCount = in.readInt();
+
+			if (storedCapacity != capacity || storedNext < 0 || storedNext >= capacity || storedCount < 0 || storedCount > capacity
+					|| in.length() < HEADER_SIZE + (long) capacity * RECORD_SIZE)
+			{
+				throw new IOException("Corrupt header");
+			}
+
+			for (int i = 0; i < storedCount; i++)
+			{
+				ring[i] = new UUID(in.readLong(), in.readLong());
+				recent.add(ring[i]);
+			}
+
+			next = storedNext;
+			count = storedCount;
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to read recent messages", e);
+			recent.clear();
+			count = 0;
+			next = 0;
+			corrupt = true;
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(in);
+		}
+
+		if (corrupt)
+		{
+			rewrite(context);
+		}
+	}
+
+	private void write(Context context, int index)
+	{
+		File file = getFile(context);
+
+		if (!file.exists() || file.length() < HEADER_SIZE + (long) capacity * RECORD_SIZE)
+		{
+			rewrite(context);
+			return;
+		}
+
+		RandomAccessFile out = null;
+
+		try
+		{
+			out = new RandomAccessFile(file, "rw");
+			out.seek(HEADER_SIZE + (long) index * RECORD_SIZE);
+			out.writeLong(ring[index].getMostSignificantBits());
+			out.writeLong(ring[index].getLeastSignificantBits());
+			out.seek(0);
+			writeHeader(out);
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to record received message " + ring[index], e);
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Writes the whole buffer in the current layout
+	 */
+	private void rewrite(Context context)
+	{
+		File file = getFile(context);
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = null;
+
+		try
+		{
+			out = new RandomAccessFile(temp, "rw");
+			out.setLength(HEADER_SIZE + (long) capacity * RECORD_SIZE);
+			writeHeader(out);
+
+			for (int i = 0; i < count; i++)
+			{
+				out.writeLong(ring[i].getMostSignificantBits());
+				out.writeLong(ring[i].getLeastSignificantBits());
+			}
+
+			out.close();
+			out = null;
+
+			if (!temp.renameTo(file))
+			{
+				throw new IOException("Failed to replace " + file);
+			}
+		}
+		catch (IOException e)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Failed to write recent messages", e);
+		}
+		finally
+		{
+			StarFlightUtils.closeQuietly(out);
+		}
+	}
+
+	private void writeHeader(RandomAccessFile out) throws IOException
+	{
+		out.writeInt(capacity);
+		out.writeInt(next);
+		out.writeInt(count);
+	}
+
+	private File getFile(Context context)
+	{
+		return new File(context.getFilesDir(), FILE_NAME + "_" + capacity);
+	}
+}
@@ -18,6 +18,11 @@ public class RegistrationResponse implements StarFlightResponse
         return clientUuid;
     }
 
+    public Result getResult()
+    {
+        return result;
+    }
+
     public enum Result
     {
         /**
@@ -0,0 +1,78 @@
+package com.starcut.starflight_client_android;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Immutable snapshot of the StarFlight registration of this device. Changes create a new snapshot.
+ */
+final class RegistrationState
+{
+	static final RegistrationState EMPTY = new RegistrationState(null, null, null, -1, TagSet.EMPTY);
+
+	/**
+	 * The GCM registration id, or null if not registered
+	 */
+	final String registrationId;
+
+	/**
+	 * The client UUID assigned by the push server, or null if not registered
+	 */
+	final UUID clientUuid;
+
+	/**
+	 * The registration id that was last sent to the push server
+	 */
+	final String lastSentRegistrationId;
+
+	/**
+	 * When the registration was last sent to the push server, or -1 if never
+	 */
+	final long lastRegistrationTime;
+
+	/**
+	 * The registered tags, sorted
+	 */
+	final TagSet tags;
+
+	RegistrationState(String registrationId, UUID clientUuid, String lastSentRegistrationId, long lastRegistrationTime, Collection<String> tags)
+	{
+		this.registrationId = registrationId;
+		this.clientUuid = clientUuid;
+		this.lastSentRegistrationId = lastSentRegistrationId;
+		this.lastRegistrationTime = lastRegistrationTime;
+		this.tags = TagSet.of(tags);
+	}
+
+	/**
+	 * Gets the state after the supplied registration was sent to the push server
+	 */
+	RegistrationState withRegistration(String registrationId, Collection<String> tags, UUID clientUuid, long time)
+	{
+		return new RegistrationState(registrationId, clientUuid, registrationId, time, tags);
+	}
+
+	/**
+	 * Gets the state after the push server confirmed the registration unchanged at the supplied time
+	 */
+	RegistrationState withRegistrationTime(long time)
+	{
+		return new RegistrationState(registrationId, clientUuid, lastSentRegistrationId, time, tags);
+	}
+
+	/**
+	 * Gets the state after the supplied tags were unregistered
+	 */
+	RegistrationState withoutTags(Collection<String> removedTags)
+	{
+		return new RegistrationState(registrationId, clientUuid, lastSentRegistrationId, lastRegistrationTime, tags.minus(removedTags));
+	}
+
+	/**
+	 * Tells if the registered tags are exactly the supplied ones
+	 */
+	boolean hasTags(Collection<String> otherTags)
+	{
+		return tags.equals(TagSet.of(otherTags));
+	}
+}
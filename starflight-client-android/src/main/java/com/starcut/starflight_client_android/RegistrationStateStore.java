@@ -0,0 +1,261 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Looper;
+import android.os.StrictMode;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Holds the {@link RegistrationState} in memory so that queries never touch the disk once it has been loaded.</p>
+ *
+ * <p>The state is loaded from the preferences of its app on the supplied executor, started by {@link #preload} as soon
+ * as the client first sees a context so that it is usually loaded before it is needed. A thread that needs the state
+ * before that load has started reads the preferences itself instead of waiting behind other work on the executor,
+ * the main thread with an explicit StrictMode allowance for the small read.</p>
+ *
+ * <p>Changes are applied to the in-memory snapshot immediately and written behind one at a time on the supplied
+ * executor. Each write takes the snapshot when it runs, so changes made while it was waiting are written with it and
+ * a later write never carries older state.</p>
+ */
+class RegistrationStateStore
+{
+	private static final String PREFERENCES_NAME = StarFlightClient.class.getSimpleName();
+	private static final int KEY_VERSION = 1;
+	private static final String PROPERTY_REGISTRATION_ID = "registration_id_" + KEY_VERSION;
+	private static final String PROPERTY_CLIENT_UUID = "client_uuid_" + KEY_VERSION;
+	private static final String PROPERTY_LAST_SENT_REG_ID = "last_sent_registration_id_" + KEY_VERSION;
+	private static final String PROPERTY_LAST_REGISTRATION_TIME = "last_registration_time_" + KEY_VERSION;
+	private static final String PROPERTY_LEGACY_REGISTERED_TAGS = "registered_tags_" + KEY_VERSION;
+
+	/**
+	 * The registered tags encoded with {@link TagSet#encode()}, earlier versions stored them joined without escaping
+	 * under {@link #PROPERTY_LEGACY_REGISTERED_TAGS}
+	 */
+	private static final String PROPERTY_REGISTERED_TAGS = "registered_tags_2";
+
+	/**
+	 * A change to the registration state
+	 */
+	interface Mutation
+	{
+		RegistrationState apply(RegistrationState state);
+	}
+
+	private final StarFlightNamespace namespace;
+	private final Executor executor;
+	private final Executor writeExecutor;
+	private final AtomicBoolean writeQueued = new AtomicBoolean();
+	private final Object loadingLock = new Object();
+	private FutureTask<RegistrationState> loading;
+	private volatile RegistrationState state;
+	private volatile long loadNanos = -1;
+
+	RegistrationStateStore(StarFlightNamespace namespace, Executor executor)
+	{
+		this.namespace = namespace;
+		this.executor = executor;
+		this.writeExecutor = new StarFlightExecutors.SerialExecutor(executor);
+	}
+
+	/**
+	 * Gets the current registration state, loading it first if needed
+	 */
+	RegistrationState get(Context context)
+	{
+		RegistrationState current = state;
+
+		if (current != null)
+		{
+			return current;
+		}
+
+		FutureTask<RegistrationState> task = startLoading(context.getApplicationContext());
+
+		// load here rather than wait for a pool thread that may be busy with network work, does nothing if the load
+		// is already running elsewhere, in which case only that read is waited for
+		if (Looper.myLooper() == Looper.getMainLooper())
+		{
+			StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				StrictMode.setThreadPolicy(policy);
+			}
+		}
+		else
+		{
+			task.run();
+		}
+
+		return await(task);
+	}
+
+	/**
+	 * Starts loading the state in the background, unless it has already been loaded or is being loaded
+	 */
+	void preload(Context context)
+	{
+		if (state == null)
+		{
+			startLoading(context.getApplicationContext());
+		}
+	}
+
+	/**
+	 * Gets how long loading the state took in nanoseconds, or -1 if it has not been loaded
+	 */
+	long getLoadNanos()
+	{
+		return loadNanos;
+	}
+
+	/**
+	 * Applies the supplied change to the registration state and schedules it to be written to disk, after any write
+	 * that is already running
+	 */
+	void update(Context context, Mutation mutation)
+	{
+		final Context applicationContext = context.getApplicationContext();
+		get(applicationContext);
+
+		synchronized (this)
+		{
+			state = mutation.apply(state);
+		}
+
+		if (writeQueued.compareAndSet(false, true))
+		{
+			writeExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// take the snapshot only now, changes made from here on queue another write
+					writeQueued.set(false);
+					write(applicationContext, state);
+				}
+			});
+		}
+	}
+
+	private FutureTask<RegistrationState> startLoading(final Context context)
+	{
+		synchronized (loadingLock)
+		{
+			if (loading == null)
+			{
+				loading = new FutureTask<>(new Callable<RegistrationState>()
+				{
+					@Override
+					public RegistrationState call()
+					{
+						return loadNow(context);
+					}
+				});
+
+				executor.execute(loading);
+			}
+
+			return loading;
+		}
+	}
+
+	private static RegistrationState await(FutureTask<RegistrationState> task)
+	{
+		boolean interrupted = false;
+
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return task.get();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException("Failed to load StarFlight registration", e.getCause());
+		}
+		finally
+		{
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private synchronized RegistrationState loadNow(Context context)
+	{
+		if (state == null)
+		{
+			long startTime = System.nanoTime();
+			SharedPreferences prefs = getPreferences(context);
+			String clientUuid = prefs.getString(PROPERTY_CLIENT_UUID, null);
+
+			state = new RegistrationState(
+					prefs.getString(PROPERTY_REGISTRATION_ID, null),
+					clientUuid == null ? null : UUID.fromString(clientUuid),
+					prefs.getString(PROPERTY_LAST_SENT_REG_ID, null),
+					prefs.getLong(PROPERTY_LAST_REGISTRATION_TIME, -1),
+					prefs.contains(PROPERTY_REGISTERED_TAGS)
+							? TagSet.decode(prefs.getString(PROPERTY_REGISTERED_TAGS, null))
+							: TagSet.decodeLegacy(prefs.getString(PROPERTY_LEGACY_REGISTERED_TAGS, null)));
+			loadNanos = System.nanoTime() - startTime;
+		}
+
+		return state;
+	}
+
+	private void write(Context context, RegistrationState state)
+	{
+		SharedPreferences.Editor editor = getPreferences(context).edit();
+
+		if (state.registrationId == null)
+		{
+			editor.clear();
+		}
+		else
+		{
+			editor.putString(PROPERTY_REGISTRATION_ID, state.registrationId);
+			editor.putString(PROPERTY_LAST_SENT_REG_ID, state.lastSentRegistrationId);
+			editor.putLong(PROPERTY_LAST_REGISTRATION_TIME, state.lastRegistrationTime);
+			editor.putString(PROPERTY_CLIENT_UUID, state.clientUuid == null ? null : state.clientUuid.toString());
+			editor.remove(PROPERTY_LEGACY_REGISTERED_TAGS);
+
+			if (state.tags.isEmpty())
+			{
+				editor.remove(PROPERTY_REGISTERED_TAGS);
+			}
+			else
+			{
+				editor.putString(PROPERTY_REGISTERED_TAGS, state.tags.encode());
+			}
+		}
+
+		editor.apply();
+	}
+
+	private SharedPreferences getPreferences(Context context)
+	{
+		// opened messages are kept in the same legacy file, but are migrated by OpenedMessageStore
+		return namespace.getPreferences(context, PREFERENCES_NAME, StarFlightClient.PROPERTY_OPENED_MESSAGES);
+	}
+}
@@ -0,0 +1,209 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Schedules failed registrations and unregistrations to be retried with capped exponential backoff and random
+ * jitter, so that a server outage does not cause every device to retry at the same moment.</p>
+ *
+ * <p>Pending retries are persisted, and are resumed by {@link #resume} after an application restart. At most one
+ * retry of each kind is pending at a time; scheduling a new one replaces the previous one.</p>
+ */
+class RetryScheduler
+{
+	/**
+	 * Number of attempts after which a failing operation is given up
+	 */
+	static final int MAX_ATTEMPTS = 8;
+
+	private static final long BASE_DELAY = 1000 * 30; // 30 seconds
+	private static final long MAX_DELAY = 1000 * 60 * 60 * 6; // 6 hours
+
+	private static final String PREFERENCES_NAME = StarFlightClient.class.getSimpleName() + ".retry";
+	private static final String PROPERTY_TAGS = "tags_";
+	private static final String PROPERTY_ATTEMPT = "attempt_";
+	private static final String PROPERTY_NEXT_ATTEMPT_TIME = "next_attempt_time_";
+
+	private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+	private static final Random RANDOM = new Random();
+
+	enum Kind
+	{
+		REGISTER(StarFlightMetrics.Action.REGISTER),
+		UNREGISTER(StarFlightMetrics.Action.UNREGISTER);
+
+		final StarFlightMetrics.Action action;
+
+		Kind(StarFlightMetrics.Action action)
+		{
+			this.action = action;
+		}
+	}
+
+	/**
+	 * Performs a retry when it is due
+	 */
+	interface Listener
+	{
+		void retry(Context context, Kind kind, List<String> tags);
+	}
+
+	private final StarFlightNamespace namespace;
+	private final Listener listener;
+	private final Runnable[] scheduled = new Runnable[Kind.values().length];
+	private boolean resumed;
+
+	RetryScheduler(StarFlightNamespace namespace, Listener listener)
+	{
+		this.namespace = namespace;
+		this.listener = listener;
+	}
+
+	/**
+	 * Tells if an operation that failed with the supplied exception may succeed when repeated
+	 */
+	static boolean isRetryable(Throwable t)
+	{
+		if (t instanceof StarFlightHttpException)
+		{
+			return ((StarFlightHttpException) t).isRetryable();
+		}
+
+		return !(t instanceof JSONException);
+	}
+
+	/**
+	 * Gets the delay before the supplied attempt: exponential in the attempt number, capped at {@link #MAX_DELAY},
+	 * and randomized to between half and all of that
+	 */
+	static long getBackoffDelay(int attempt)
+	{
+		long delay = MAX_DELAY;
+
+		if (attempt < 20)
+		{
+			delay = Math.min(MAX_DELAY, BASE_DELAY << Math.max(0, attempt - 1));
+		}
+
+		return delay / 2 + (long) (RANDOM.nextDouble() * (delay / 2));
+	}
+
+	/**
+	 * Schedules another attempt of an operation that failed with a retryable error
+	 */
+	synchronized void schedule(Context context, Kind kind, List<String> tags)
+	{
+		SharedPreferences prefs = getPreferences(context);
+		int attempt = prefs.getInt(PROPERTY_ATTEMPT + kind, 0) + 1;
+
+		if (attempt >= MAX_ATTEMPTS)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Giving up " + kind + " after " + attempt + " attempts");
+			clear(context, kind);
+			return;
+		}
+
+		long delay = getBackoffDelay(attempt);
+		prefs.edit()
+				.putString(PROPERTY_TAGS + kind, TagSet.encode(tags))
+				.putInt(PROPERTY_ATTEMPT + kind, attempt)
+				.putLong(PROPERTY_NEXT_ATTEMPT_TIME + kind, System.currentTimeMillis() + delay)
+				.apply();
+
+		Log.i(StarFlightUtils.LOG_TAG, "Retrying " + kind + " in " + delay / 1000 + " seconds");
+		StarFlightClient.getMetrics().onRetryScheduled(kind.action, attempt, delay);
+		post(context, kind, tags, delay);
+	}
+
+	/**
+	 * Cancels the pending retry of the supplied kind, if any
+	 */
+	synchronized void clear(Context context, Kind kind)
+	{
+		if (scheduled[kind.ordinal()] != null)
+		{
+			HANDLER.removeCallbacks(scheduled[kind.ordinal()]);
+			scheduled[kind.ordinal()] = null;
+		}
+
+		getPreferences(context).edit()
+				.remove(PROPERTY_TAGS + kind)
+				.remove(PROPERTY_ATTEMPT + kind)
+				.remove(PROPERTY_NEXT_ATTEMPT_TIME + kind)
+				.apply();
+	}
+
+	/**
+	 * Schedules the retries persisted by a previous run of the application. Only has an effect the first time it is
+	 * called.
+	 */
+	synchronized void resume(Context context)
+	{
+		if (resumed)
+		{
+			return;
+		}
+
+		resumed = true;
+		SharedPreferences prefs = getPreferences(context);
+
+		for (Kind kind : Kind.values())
+		{
+			if (scheduled[kind.ordinal()] == null && prefs.contains(PROPERTY_ATTEMPT + kind))
+			{
+				TagSet tags = TagSet.decode(prefs.getString(PROPERTY_TAGS + kind, null));
+				long delay = prefs.getLong(PROPERTY_NEXT_ATTEMPT_TIME + kind, 0) - System.currentTimeMillis();
+				post(context, kind, new ArrayList<>(tags), Math.max(0, delay));
+			}
+		}
+	}
+
+	private void post(Context context, final Kind kind, List<String> tags, long delay)
+	{
+		final Context applicationContext = context.getApplicationContext();
+		final List<String> retriedTags = new ArrayList<>(tags == null ? Collections.<String>emptyList() : tags);
+
+		Runnable retry = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				synchronized (RetryScheduler.this)
+				{
+					if (scheduled[kind.ordinal()] != this)
+					{
+						return;
+					}
+
+					scheduled[kind.ordinal()] = null;
+				}
+
+				listener.retry(applicationContext, kind, retriedTags);
+			}
+		};
+
+		if (scheduled[kind.ordinal()] != null)
+		{
+			HANDLER.removeCallbacks(scheduled[kind.ordinal()]);
+		}
+
+		scheduled[kind.ordinal()] = retry;
+		HANDLER.postDelayed(retry, delay);
+	}
+
+	private SharedPreferences getPreferences(Context context)
+	{
+		return namespace.getPreferences(context, PREFERENCES_NAME);
+	}
+}
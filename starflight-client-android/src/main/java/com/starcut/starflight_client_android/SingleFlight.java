@@ -0,0 +1,229 @@
+package com.starcut.starflight_client_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>Deduplicates operations of one kind by key. While an operation is waiting or running, further requests with the
+ * same key join it instead of starting another one, and every joined callback is notified of the shared result.</p>
+ *
+ * <p>A request with a different key supersedes an operation that is still waiting to run: the waiting operation is
+ * skipped and its callbacks are notified of the result of the newer one instead.</p>
+ *
+ * <p>An operation whose callers have all cancelled or timed out is skipped if it has not started yet, and cancelled
+ * if it is running. Callers that joined without a cancellable handle keep the operation going.</p>
+ */
+class SingleFlight<T extends StarFlightResponse>
+{
+	/**
+	 * The work of an operation. Its result must be reported to the supplied callback, and it should stop as soon as
+	 * possible when the supplied cancellation is cancelled.
+	 */
+	interface Operation<T extends StarFlightResponse>
+	{
+		void run(StarFlightCallback<T> callback, Cancellation cancellation);
+	}
+
+	private final Executor executor;
+	private Flight pending;
+	private Flight running;
+
+	SingleFlight(Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Runs the supplied operation unless an operation with an equal key is already waiting or running
+	 */
+	void execute(Object key, Operation<T> operation, StarFlightCallback<T> callback)
+	{
+		join(key, operation, callback, false);
+	}
+
+	/**
+	 * Runs the supplied operation unless an operation with an equal key is already waiting or running, reporting the
+	 * result to the supplied handle. The operation is stopped if it and all other joined handles are abandoned.
+	 */
+	void execute(Object key, Operation<T> operation, final StarFlightOperation<T> handle)
+	{
+		join(key, operation, handle.asCallback(), true);
+
+		handle.setAbandonListener(new Cancellation.Listener()
+		{
+			@Override
+			public void onCancel()
+			{
+				leave(handle.asCallback(), handle.isTimedOut());
+			}
+		});
+	}
+
+	private void join(Object key, Operation<T> operation, StarFlightCallback<T> callback, boolean cancellable)
+	{
+		Flight flight;
+
+		synchronized (this)
+		{
+			if (pending != null && pending.key.equals(key))
+			{
+				pending.join(callback, cancellable);
+				return;
+			}
+
+			if (pending == null && running != null && running.key.equals(key) && running.join(callback, cancellable))
+			{
+				return;
+			}
+
+			flight = new Flight(key, operation);
+			flight.join(callback, cancellable);
+
+			if (pending != null)
+			{
+				flight.callbacks.addAll(pending.callbacks);
+				flight.pinned |= pending.pinned;
+				pending.callbacks.clear();
+				pending.superseded = true;
+			}
+
+			pending = flight;
+		}
+
+		executor.execute(flight);
+	}
+
+	/**
+	 * Removes the callback of an abandoned handle, stopping its operation if nobody else is waiting for it
+	 */
+	private void leave(StarFlightCallback<T> callback, boolean timedOut)
+	{
+		Flight abandoned = null;
+
+		synchronized (this)
+		{
+			if (pending != null && pending.leave(callback))
+			{
+				abandoned = pending;
+				pending.superseded = true;
+				pending = null;
+			}
+			else if (running != null && running.leave(callback))
+			{
+				abandoned = running;
+			}
+		}
+
+		if (abandoned != null)
+		{
+			abandoned.cancellation.cancel(timedOut);
+		}
+	}
+
+	private class Flight implements Runnable, StarFlightCallback<T>
+	{
+		final Object key;
+		final Operation<T> operation;
+		final List<StarFlightCallback<T>> callbacks = new ArrayList<>(1);
+		final Cancellation cancellation = new Cancellation();
+		boolean pinned;
+		boolean superseded;
+		boolean completed;
+
+		Flight(Object key, Operation<T> operation)
+		{
+			this.key = key;
+			this.operation = operation;
+		}
+
+		/**
+		 * Adds a callback to this flight
+		 * @param cancellable whether the callback may leave the flight again
+		 * @return false if the flight has already delivered its result
+		 */
+		boolean join(StarFlightCallback<T> callback, boolean cancellable)
+		{
+			if (completed)
+			{
+				return false;
+			}
+
+			if (callback != null)
+			{
+				callbacks.add(callback);
+			}
+
+			pinned |= !cancellable;
+			return true;
+		}
+
+		/**
+		 * Removes a callback from this flight
+		 * @return true if the callback was the last one waiting for this flight, which can then be stopped
+		 */
+		boolean leave(StarFlightCallback<T> callback)
+		{
+			return callbacks.remove(callback) && callbacks.isEmpty() && !pinned && !completed;
+		}
+
+		@Override
+		public void run()
+		{
+			synchronized (SingleFlight.this)
+			{
+				if (superseded)
+				{
+					return;
+				}
+
+				pending = null;
+				running = this;
+			}
+
+			try
+			{
+				operation.run(this, cancellation);
+			}
+			finally
+			{
+				cancellation.complete();
+
+				synchronized (SingleFlight.this)
+				{
+					if (running == this)
+					{
+						running = null;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void onSuccess(T result)
+		{
+			for (StarFlightCallback<T> callback : complete())
+			{
+				callback.onSuccess(result);
+			}
+		}
+
+		@Override
+		public void onFailure(String message, Throwable t)
+		{
+			for (StarFlightCallback<T> callback : complete())
+			{
+				callback.onFailure(message, t);
+			}
+		}
+
+		private List<StarFlightCallback<T>> complete()
+		{
+			synchronized (SingleFlight.this)
+			{
+				completed = true;
+				return new ArrayList<>(callbacks);
+			}
+		}
+	}
+}
@@ -8,58 +8,177 @@ import android.util.Log;
 
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+/**
+ * <p>Receives StarFlight push notifications. Subclasses implement
+ * {@link #onReceive(Context, String, String, UUID, StarFlightMessageOptions)}, which is called on a background worker
+ * thread so that handling a notification, such as building and posting a system notification, does not block the main
+ * thread. Messages redelivered by GCM are recognized by their UUID and are not passed on again.</p>
+ *
+ * <p>The broadcast is kept alive with {@link #goAsync()} until that method returns or throws, after which it is
+ * finished. Since the system only allows about ten seconds for this, longer work should be handed off to a service.
+ * Subclasses that need to handle notifications on the main thread can override {@link #getReceiveExecutor()}. A
+ * notification that the executor rejects, because its queue is full, is handled right away on the thread that
+ * received it.</p>
+ */
 public abstract class StarFlightBroadcastReceiver extends BroadcastReceiver
 {
-	private static final String UUID_KEY = "uuid";
+	static final String UUID_KEY = "uuid";
+	private static final String MESSAGE_TYPE_KEY = "message_type";
 
 	@Override
-    public void onReceive(Context context, Intent data)
+    public void onReceive(final Context context, final Intent data)
     {
-    	Log.e("StarFlight Push Client", "Received broadcast: " + data);
-    	
-    	Bundle extras = data.getExtras();
-        GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(context);
-        String messageType = gcm.getMessageType(data);
+    	final long receiveTime = System.nanoTime();
+    	final Bundle extras = data.getExtras();
 
-        if (!extras.isEmpty() && extras.containsKey(UUID_KEY))
+        if (extras == null || !extras.containsKey(UUID_KEY))
         {
-        	if (GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE.equals(messageType))
-        	{
-		        JSONObject options = new JSONObject();
+        	return;
+        }
+
+        final PendingResult result = goAsync();
 
-		        for (String key : extras.keySet())
-                {
-			        if (!key.equals(StarFlightClient.TEXT_KEY) && !key.equals(StarFlightClient.URL_KEY) && !key.equals(UUID_KEY))
+        Runnable task = new Runnable()
+        {
+	        @Override
+	        public void run()
+	        {
+		        try
+		        {
+			        dispatch(context, data, extras, receiveTime);
+		        }
+		        finally
+		        {
+			        if (result != null)
 			        {
-				        try
-				        {
-					        options.put(key, extras.get(key));
-				        }
-				        catch (JSONException e)
-				        {
-					        Log.w("StarFlight Push Client", "Failed to serialize extra as JSON: " + extras.get(key), e);
-				        }
+				        result.finish();
 			        }
 		        }
-        		String url = (extras.containsKey(StarFlightClient.URL_KEY)) ? extras.getString(StarFlightClient.URL_KEY) : null;
-        		UUID messageUuid = UUID.fromString(extras.getString(UUID_KEY));
-        		onReceive(context, extras.getString(StarFlightClient.TEXT_KEY), url, messageUuid, options);
-        	}
+	        }
+        };
+
+        try
+        {
+	        getReceiveExecutor().execute(task);
+        }
+        catch (RejectedExecutionException e)
+        {
+	        // a full queue would keep the broadcast pending past its deadline, so handle this one right away
+	        Log.w(StarFlightUtils.LOG_TAG, "Receive queue full, handling push notification on the calling thread");
+	        task.run();
         }
     }
 
 	/**
-	 * Called when a StarFlight push notification was received with the supplied details
+	 * Gets the GCM message type of the supplied broadcast, like GoogleCloudMessaging.getMessageType but without
+	 * getting the GoogleCloudMessaging instance
+	 */
+	static String getMessageType(Intent data)
+	{
+		String messageType = data.getStringExtra(MESSAGE_TYPE_KEY);
+		return messageType == null ? GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE : messageType;
+	}
+
+	private void dispatch(Context context, Intent data, Bundle extras, long receiveTime)
+	{
+		String messageType = getMessageType(data);
+		Log.d(StarFlightUtils.LOG_TAG, "Received " + messageType + " broadcast");
+
+		if (GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE.equals(messageType))
+		{
+			UUID messageUuid;
+
+			try
+			{
+				messageUuid = UUID.fromString(extras.getString(UUID_KEY));
+			}
+			catch (IllegalArgumentException e)
+			{
+				Log.w(StarFlightUtils.LOG_TAG, "Ignoring push notification with an invalid UUID: " + extras.getString(UUID_KEY));
+				return;
+			}
+
+			if (isDuplicate(context, messageUuid))
+			{
+				Log.d(StarFlightUtils.LOG_TAG, "Ignoring redelivered push notification " + messageUuid);
+				return;
+			}
+
+			StarFlightMessageOptions options = new StarFlightMessageOptions(extras);
+			StarFlightClient.getMetrics().onMessageDispatched(System.nanoTime() - receiveTime);
+			String url = (extras.containsKey(StarFlightClient.URL_KEY)) ? extras.getString(StarFlightClient.URL_KEY) : null;
+			onReceive(context, extras.getString(StarFlightClient.TEXT_KEY), url, messageUuid, options);
+		}
+	}
+
+	private boolean isDuplicate(Context context, UUID messageUuid)
+	{
+		int window = getDuplicateWindow();
+
+		if (window <= 0)
+		{
+			return false;
+		}
+
+		return !RecentMessageFilter.get(window).add(context.getApplicationContext(), messageUuid);
+	}
+
+	/**
+	 * Gets the number of most recently received messages whose UUIDs are remembered in order to ignore redelivered
+	 * messages. Returning zero disables the check. The default is 1000. Receivers with the same window share their
+	 * history, receivers with different windows keep separate ones.
+	 */
+	protected int getDuplicateWindow()
+	{
+		return RecentMessageFilter.DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Gets the executor on which received push notifications are handled. By default this is a small pool of
+	 * background threads shared by all StarFlight receivers, which queues a few notifications that arrive faster than
+	 * it handles them. Notifications that the executor rejects are handled on the thread that received them.
+	 */
+	protected Executor getReceiveExecutor()
+	{
+		return StarFlightExecutors.getReceiveExecutor();
+	}
+
+	/**
+	 * Called on a worker thread when a StarFlight push notification was received with the supplied details. Subclasses
+	 * override this method, or the deprecated {@link #onReceive(Context, String, String, UUID, JSONObject)} that the
+	 * default implementation calls with the options converted to JSON. A receiver that overrides neither logs an
+	 * error for every notification.
+	 * @param context
+	 * @param text the notification text
+	 * @param url the notification URL, or null if the notification did not have an URL
+	 * @param messageUuid the StarFlight message's UUID
+	 * @param options the StarFlight message's extra options
+	 */
+	public void onReceive(Context context, String text, String url, UUID messageUuid, StarFlightMessageOptions options)
+	{
+		onReceive(context, text, url, messageUuid, options.toJSONObject());
+	}
+
+	/**
+	 * Called on a worker thread when a StarFlight push notification was received with the supplied details
 	 * @param context
 	 * @param text the notification text
 	 * @param url the notification URL, or null if the notification did not have an URL
 	 * @param messageUuid the StarFlight message's UUID
 	 * @param options the StarFlight message's extra options
+	 * @deprecated override {@link #onReceive(Context, String, String, UUID, StarFlightMessageOptions)} instead, which
+	 * does not copy the options unless they are converted to JSON
 	 */
-	public abstract void onReceive(Context context, String text, String url, UUID messageUuid, JSONObject options);
+	@Deprecated
+	public void onReceive(Context context, String text, String url, UUID messageUuid, JSONObject options)
+	{
+		Log.e(StarFlightUtils.LOG_TAG, getClass().getName() + " overrides neither onReceive method, push notification "
+				+ messageUuid + " was not handled");
+	}
 }
@@ -2,34 +2,42 @@ package com.starcut.starflight_client_android;
 
 import android.app.Activity;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.gcm.GoogleCloudMessaging;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class StarFlightClient
 {
@@ -37,30 +45,95 @@ public class StarFlightClient
 	public static final String URL_KEY = "url";
 	public static final String SUBJECT_KEY = "subject";
 
-	private static final String PUSH_SERVER_URL = "https://starflight.starcloud.us/push";
+	static final String PUSH_SERVER_URL = "https://starflight.starcloud.us/push";
 
 	private static final int PLAY_SERVICES_RESOLUTION_REQUEST = 9000;
 
 	/**
 	 * How frequently registrations should be refreshed in milliseconds
 	 */
-	private static final long REGISTRATION_REFRESH_INTERVAL = 1000 * 60 * 60 * 24 * 10; // 10 days
+	static final long REGISTRATION_REFRESH_INTERVAL = 1000 * 60 * 60 * 24 * 10; // 10 days
 
-	private static final String LOG_TAG = "StarFlight Push Client";
+	/**
+	 * Up to how much earlier than {@link #REGISTRATION_REFRESH_INTERVAL} each installation refreshes its registration,
+	 * so that installations registered at the same time do not all refresh at the same time
+	 */
+	static final long REGISTRATION_REFRESH_SPREAD = 1000 * 60 * 60 * 24 * 4; // 4 days
+	private static final int FINGERPRINT_LENGTH = 16; // bytes
+
+	/**
+	 * Up to how many tags are sent in a single request, larger tag lists are sent in several requests if the server
+	 * supports it
+	 */
+	private static final int MAX_TAGS_PER_REQUEST = 500;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * How long in milliseconds a refresh requested at startup waits, to keep its work away from application startup
+	 */
+	private static final long REGISTRATION_REFRESH_DELAY = 1000 * 5; // 5 seconds
+	private static final long POOR_LINK_MAX_HOLD = 1000 * 60 * 15; // 15 minutes
+
+	/**
+	 * How long in milliseconds tag changes are collected before they are sent
+	 */
+	private static final long TAG_CHANGE_DELAY = 1000;
+
+	/**
+	 * Default time in milliseconds after which an operation fails if it has not completed
+	 */
+	private static final long DEFAULT_OPERATION_TIMEOUT = 1000 * 60; // 60 seconds
+
+	private static final String LOG_TAG = StarFlightUtils.LOG_TAG;
 	private static final int KEY_VERSION = 1;
-	private static final String PROPERTY_REGISTRATION_ID = "registration_id_" + KEY_VERSION;
-	private static final String PROPERTY_CLIENT_UUID = "client_uuid_" + KEY_VERSION;
-	private static final String PROPERTY_LAST_SENT_REG_ID = "last_sent_registration_id_" + KEY_VERSION;
-	private static final String PROPERTY_LAST_REGISTRATION_TIME = "last_registration_time_" + KEY_VERSION;
-	private static final String PROPERTY_REGISTERED_TAGS = "registered_tags_" + KEY_VERSION;
-	private static final String PROPERTY_OPENED_MESSAGES = "opened_messages_" + KEY_VERSION;
+	static final String PROPERTY_OPENED_MESSAGES = "opened_messages_" + KEY_VERSION;
 
 	private static final Handler CALLBACK_HANDLER = new Handler(Looper.getMainLooper());
 
+	/**
+	 * Runs tasks on the main thread, where callbacks are called by default
+	 */
+	private static final Executor MAIN_THREAD_EXECUTOR = new Executor()
+	{
+		@Override
+		public void execute(Runnable command)
+		{
+			CALLBACK_HANDLER.post(command);
+		}
+	};
+
+	private static volatile StarFlightMetrics metrics = StarFlightMetrics.NONE;
+	private static final StarFlightConnectivity SYSTEM_CONNECTIVITY = new SystemConnectivity();
+	private static volatile StarFlightConnectivity connectivity = SYSTEM_CONNECTIVITY;
+
 	private final String senderId;
 	private final String appId;
 	private final String clientSecret;
 
+	/**
+	 * The engine of this client, referenced so that a shared engine is kept while any of its clients is in use
+	 */
+	private final StarFlightEngine engine;
+	private final StarFlightTransport transport;
+	private final Executor registrationExecutor;
+	private final Executor messageExecutor;
+	private final SingleFlight<RegistrationResponse> registrations;
+	private final SingleFlight<UnregistrationResponse> unregistrations;
+	private final RegistrationStateStore registrationState;
+	private final OpenedMessageStore openedMessages = OpenedMessageStore.getInstance();
+	private final MessageOpenedOutbox outbox;
+	private final AtomicBoolean openedMessagesFlushScheduled = new AtomicBoolean();
+	private final AtomicBoolean waitingForConnectivity = new AtomicBoolean();
+	private final RetryScheduler retries;
+	private volatile int openedMessagesAttempt;
+	private final Object tagChangesLock = new Object();
+	private TagChanges pendingTagChanges;
+	private volatile GoogleCloudMessaging gcm;
+	private volatile long gcmInitNanos = -1;
+	private volatile long operationTimeout = DEFAULT_OPERATION_TIMEOUT;
+	private volatile Executor callbackExecutor = MAIN_THREAD_EXECUTOR;
+	private final long constructionNanos;
+
 	/**
 	 * Constructs a new StarFlight Client with the supplied GCM sender id, StarFlight app id and StarFlight client secret
 	 * @param senderId the GCM sender id
@@ -69,71 +142,364 @@ public class StarFlightClient
 	 */
 	public StarFlightClient(String senderId, String appId, String clientSecret)
 	{
+		this(senderId, appId, clientSecret, StarFlightEngine.getDefault());
+	}
+
+	/**
+	 * <p>Constructs a new StarFlight Client that runs its background work on the supplied executor.</p>
+	 *
+	 * <p>Registrations and unregistrations are run one at a time in the order they were requested, and so are
+	 * message open reports. The two kinds of operations may run concurrently with each other.</p>
+	 * @param senderId the GCM sender id
+	 * @param appId the StarFlight app id
+	 * @param clientSecret the StarFlight client secret
+	 * @param executor the executor used for network and storage operations
+	 */
+	public StarFlightClient(String senderId, String appId, String clientSecret, Executor executor)
+	{
+		this(senderId, appId, clientSecret, StarFlightEngine.get(executor, PUSH_SERVER_URL));
+	}
+
+	/**
+	 * Constructs a new StarFlight Client that talks to the push server at the supplied URL instead of the production
+	 * server, for example a staging server or a local stand-in used for testing
+	 * @param senderId the GCM sender id
+	 * @param appId the StarFlight app id
+	 * @param clientSecret the StarFlight client secret
+	 * @param executor the executor used for network and storage operations
+	 * @param serverUrl the URL of the push server endpoint
+	 */
+	public StarFlightClient(String senderId, String appId, String clientSecret, Executor executor, String serverUrl)
+	{
+		this(senderId, appId, clientSecret, StarFlightEngine.get(executor, serverUrl));
+	}
+
+	/**
+	 * <p>Constructs a new StarFlight Client that multiplexes its work over the supplied engine, which may be shared
+	 * with clients of other StarFlight apps.</p>
+	 *
+	 * <p>The registration state of each app id is kept separately, and is shared by all clients of that app id in
+	 * the process.</p>
+	 * @param senderId the GCM sender id
+	 * @param appId the StarFlight app id
+	 * @param clientSecret the StarFlight client secret
+	 * @param engine the engine providing the executor and push server connections
+	 */
+	public StarFlightClient(String senderId, String appId, String clientSecret, StarFlightEngine engine)
+	{
+		long startTime = System.nanoTime();
 		this.senderId = senderId;
 		this.appId = appId;
 		this.clientSecret = clientSecret;
+		this.engine = engine;
+		this.transport = engine.getTransport();
+		this.messageExecutor = new StarFlightExecutors.SerialExecutor(engine.getExecutor());
+
+		StarFlightNamespace namespace = StarFlightNamespace.get(appId, engine.getExecutor());
+		this.registrationExecutor = new StarFlightExecutors.SerialExecutor(engine.getExecutor());
+		this.registrations = new SingleFlight<>(registrationExecutor);
+		this.unregistrations = new SingleFlight<>(registrationExecutor);
+		this.retries = new RetryScheduler(namespace, retryListener);
+		this.registrationState = namespace.registrationState;
+		this.outbox = namespace.outbox;
+		this.constructionNanos = System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Installs the metrics that are notified of the operations of all StarFlight clients and receivers in this process
+	 * @param metrics the metrics, or null to stop reporting measurements
+	 */
+	public static void setMetrics(StarFlightMetrics metrics)
+	{
+		StarFlightClient.metrics = metrics == null ? StarFlightMetrics.NONE : metrics;
+	}
+
+	static StarFlightMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Installs the connectivity state that all StarFlight clients in this process use to hold non-urgent traffic
+	 * while offline
+	 * @param connectivity the connectivity, or null to use the system connectivity state
+	 */
+	public static void setConnectivity(StarFlightConnectivity connectivity)
+	{
+		StarFlightClient.connectivity = connectivity == null ? SYSTEM_CONNECTIVITY : connectivity;
+	}
+
+	/**
+	 * <p>Sets the StarFlight app whose registration state was kept by earlier versions of this library, which
+	 * supported a single app and did not record its app id. The state is moved to that app when one of its clients
+	 * first reads it.</p>
+	 *
+	 * <p>Only needed by applications that use clients of several app ids, and must then be called before any client
+	 * is used. Without it, the earlier state is moved to the only app used in the process, and is left in place while
+	 * clients of several apps are in use.</p>
+	 * @param appId the app id, or null to move the state to the only app used in the process
+	 */
+	public static void setLegacyAppId(String appId)
+	{
+		StarFlightNamespace.setLegacyAppId(appId);
+	}
+
+	/**
+	 * Sets the total time an operation may take, including waiting for other operations, before it fails with a
+	 * {@link java.util.concurrent.TimeoutException}. Network work that times out is retried in the background like
+	 * other network failures. The default is 60 seconds. The connect and read timeouts of individual requests are set
+	 * on the {@link StarFlightEngine}.
+	 * @param operationTimeout the timeout in milliseconds, or 0 for no deadline
+	 */
+	public void setOperationTimeout(long operationTimeout)
+	{
+		this.operationTimeout = operationTimeout;
+	}
+
+	/**
+	 * Sets the executor on which the callbacks passed to this client are called. By default they are called on the
+	 * main thread. Callers that chain further background work can avoid the hop to the main thread by supplying their
+	 * own executor, or null. Listeners added to the returned {@link StarFlightOperation} handles choose their own
+	 * executor.
+	 * @param callbackExecutor the executor, or null to call callbacks directly on the background thread that
+	 * completes the operation
+	 */
+	public void setCallbackExecutor(Executor callbackExecutor)
+	{
+		this.callbackExecutor = callbackExecutor;
 	}
 
 	/**
 	 * Registers for push notifications
 	 * @param callback callback that will be notified of success or failure
+	 * @return a handle with which the registration can be cancelled
+	 */
+	public StarFlightOperation<RegistrationResponse> register(Activity activity, StarFlightCallback<RegistrationResponse> callback)
+	{
+		return register(activity, null, callback);
+	}
+
+	/**
+	 * <p>Refreshes the current StarFlight registration if needed. It is advisable to call this method every time your
+	 * application starts.</p>
+	 *
+	 * <p>The check runs in the background a few seconds later, so calling this method never blocks. A request is only
+	 * sent when the registration is due to be refreshed. Each installation refreshes at its own fixed point between 6
+	 * and 10 days after its last registration, so that installations do not all refresh at the same time. Does
+	 * nothing if not registered.</p>
+	 *
+	 * <p>While the device is offline the refresh and the reporting of queued message opens are held, and are sent
+	 * together once it is connected again. On a poor link, such as a 2G or roaming network, they are held for up to
+	 * 15 minutes in case a better network becomes available, and are then sent together anyway.</p>
+	 *
+	 * <p>The stored registration starts loading in the background right away, so that {@link #isRegistered} and
+	 * {@link #getClientUuid} called later on the main thread find it in memory.</p>
+	 */
+	public void refreshRegistration(Context context)
+	{
+		final Context applicationContext = context.getApplicationContext();
+		registrationState.preload(applicationContext);
+		resumeRetries(applicationContext, false);
+
+		CALLBACK_HANDLER.postDelayed(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				registrationExecutor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						refreshRegistrationIfDue(applicationContext, true);
+					}
+				});
+
+				flushOpenedMessages(applicationContext, true);
+			}
+		}, REGISTRATION_REFRESH_DELAY);
+	}
+
+	/**
+	 * Refreshes the registration if it is due
+	 * @param deferrable whether the refresh may be held while the device is offline or on a poor link
+	 */
+	private void refreshRegistrationIfDue(Context context, boolean deferrable)
+	{
+		RegistrationState state = registrationState.get(context);
+
+		if (state.registrationId == null)
+		{
+			Log.w(LOG_TAG, "Not refreshing registration, not registered");
+			return;
+		}
+
+		if (!isRefreshDue(state, System.currentTimeMillis()) && state.registrationId.equals(state.lastSentRegistrationId))
+		{
+			return;
+		}
+
+		if (PlayServicesAvailability.getStatus(context) != ConnectionResult.SUCCESS)
+		{
+			Log.w(LOG_TAG, "Not refreshing registration, Google Play Services not available");
+			return;
+		}
+
+		if (deferrable && deferWhileOffline(context))
+		{
+			Log.d(LOG_TAG, "Registration refresh deferred until connected");
+			return;
+		}
+
+		List<String> tags = new ArrayList<>(state.tags);
+		registrations.execute(tags, newRegistrationOperation(context, tags), new StarFlightOperation<RegistrationResponse>());
+	}
+
+	/**
+	 * Tells if the supplied registration should be refreshed at the supplied time
 	 */
-	public void register(Activity activity, StarFlightCallback<RegistrationResponse> callback)
+	static boolean isRefreshDue(RegistrationState state, long now)
 	{
-		register(activity, null, callback);
+		return state.lastRegistrationTime == -1 || now - state.lastRegistrationTime > getRefreshInterval(state);
 	}
 
 	/**
-	 * Refreshes the current StarFlight registration if needed. It is advisable to call this method every time your application starts.
+	 * Gets the refresh interval of the supplied registration: {@link #REGISTRATION_REFRESH_INTERVAL} shortened by a
+	 * fraction of {@link #REGISTRATION_REFRESH_SPREAD} that is fixed for the installation
 	 */
-	public void refreshRegistration(Activity activity)
+	static long getRefreshInterval(RegistrationState state)
 	{
-		if (!isRegistered(activity))
+		if (state.clientUuid != null)
 		{
-			throw new IllegalStateException("Not registered");
+			return getRefreshInterval(state.clientUuid.getLeastSignificantBits() ^ state.clientUuid.getMostSignificantBits());
 		}
 
-		final SharedPreferences preferences = getStarFlightPreferences(activity);
-		final String registeredTags = preferences.getString(PROPERTY_REGISTERED_TAGS, null);
-		List<String> tags = registeredTags == null ?
-                Collections.<String>emptyList() :
-                Arrays.asList(registeredTags.split(","));
-		Log.d("NOTIF", "Registered flags to refresh " + tags);
-		register(activity, tags, null);
+		return getRefreshInterval(state.registrationId == null ? 0 : state.registrationId.hashCode());
+	}
+
+	/**
+	 * Gets the refresh interval of an installation whose registration yields the supplied seed
+	 */
+	static long getRefreshInterval(long seed)
+	{
+		// mix the bits so that similar seeds still spread evenly
+		seed *= 0x9E3779B97F4A7C15L;
+		seed ^= seed >>> 32;
+
+		double fraction = (seed & 0x7fffffffL) / (double) 0x80000000L;
+		return REGISTRATION_REFRESH_INTERVAL - (long) (fraction * REGISTRATION_REFRESH_SPREAD);
 	}
 
 	/**
 	 * <p>Registers for push notifications with the supplied list of tags.</p>
 	 *
 	 * <p>If a registration already exists, its tags will be replaced with the supplied values.</p>
+	 *
+	 * <p>If a registration with the same tags is already in progress, this call joins it and the callback is notified
+	 * of its result. A registration with different tags replaces one that has not started yet.</p>
+	 *
+	 * <p>If the registration fails because of a network error or a temporary server error, the callback is notified of
+	 * the failure and the registration is retried in the background with exponential backoff.</p>
 	 * @param tags the tags
 	 * @param callback callback that will be notified of success or failure
+	 * @return a handle with which the registration can be cancelled
 	 */
-	public void register(Activity activity, List<String> tags, StarFlightCallback<RegistrationResponse> callback)
+	public StarFlightOperation<RegistrationResponse> register(Activity activity, List<String> tags, StarFlightCallback<RegistrationResponse> callback)
 	{
-		if (checkPlayServices(activity))
+		resumeRetries(activity, true);
+		return requestRegistration(activity, tags, callback);
+	}
+
+	/**
+	 * Resumes retries persisted by a previous run, and optionally cancels all pending retries because they are being
+	 * superseded by a new registration
+	 */
+	private void resumeRetries(Context context, final boolean supersede)
+	{
+		final Context applicationContext = context.getApplicationContext();
+
+		registrationExecutor.execute(new Runnable()
 		{
-            Context context = activity.getApplicationContext();
-			String registrationId = getRegistrationId(context);
-			if (registrationId == null)
+			@Override
+			public void run()
 			{
-				getRegistrationIdInBackground(context, tags, callback);
+				retries.resume(applicationContext);
+
+				if (supersede)
+				{
+					retries.clear(applicationContext, RetryScheduler.Kind.REGISTER);
+					retries.clear(applicationContext, RetryScheduler.Kind.UNREGISTER);
+				}
 			}
-			else
+		});
+	}
+
+	private StarFlightOperation<RegistrationResponse> requestRegistration(Activity activity, List<String> tags, StarFlightCallback<RegistrationResponse> callback)
+	{
+		StarFlightOperation<RegistrationResponse> operation = newOperation(callback);
+
+		if (checkPlayServices(activity))
+		{
+			Context context = activity.getApplicationContext();
+			registrationState.preload(context);
+			List<String> sortedTags = sortedCopy(tags);
+			registrations.execute(sortedTags, newRegistrationOperation(context, sortedTags), operation);
+		}
+		else
+		{
+			callOnFailure(operation.asCallback(), "Google Play Services not available", null);
+		}
+
+		return operation;
+	}
+
+	/**
+	 * Creates the handle of an operation started by the application, with the current operation timeout and callback
+	 * executor
+	 */
+	private <T extends StarFlightResponse> StarFlightOperation<T> newOperation(StarFlightCallback<T> callback)
+	{
+		StarFlightOperation<T> operation = new StarFlightOperation<>();
+		operation.setTimeout(operationTimeout);
+
+		if (callback != null)
+		{
+			operation.addCallback(callback, callbackExecutor);
+		}
+
+		return operation;
+	}
+
+	private SingleFlight.Operation<RegistrationResponse> newRegistrationOperation(final Context context, final List<String> tags)
+	{
+		return new SingleFlight.Operation<RegistrationResponse>()
+		{
+			@Override
+			public void run(StarFlightCallback<RegistrationResponse> callback, Cancellation cancellation)
 			{
-				sendRegistrationIdIfNeeded(context, tags, callback);
+				cancellation.cancelAfter(operationTimeout);
+
+				if (getRegistrationId(context) == null)
+				{
+					sendNewRegistration(context, tags, callback, cancellation);
+				}
+				else
+				{
+					sendRegistrationIdIfNeeded(context, tags, callback, cancellation);
+				}
 			}
-		}
+		};
 	}
 
 	/**
 	 * Removes an existing registration
 	 * @param activity
 	 * @param callback callback that will be notified of success or failure
+	 * @return a handle with which the unregistration can be cancelled
 	 */
-    public void unregister(Activity activity, StarFlightCallback<UnregistrationResponse> callback)
+    public StarFlightOperation<UnregistrationResponse> unregister(Activity activity, StarFlightCallback<UnregistrationResponse> callback)
     {
-        unregister(activity, null, callback);
+        return unregister(activity, null, callback);
     }
 
 	/**
@@ -141,456 +507,1294 @@ public class StarFlightClient
 	 * @param activity
 	 * @param tags
 	 * @param callback callback that will be notified of success or failure
+	 * @return a handle with which the unregistration can be cancelled
 	 */
-	public void unregister(Activity activity, List<String> tags, StarFlightCallback<UnregistrationResponse> callback)
+	public StarFlightOperation<UnregistrationResponse> unregister(Activity activity, List<String> tags, StarFlightCallback<UnregistrationResponse> callback)
 	{
+		StarFlightOperation<UnregistrationResponse> operation = newOperation(callback);
+
 		if (checkPlayServices(activity))
 		{
-            Context context = activity.getApplicationContext();
-			String registrationId = getRegistrationId(context);
+			final Context context = activity.getApplicationContext();
+			registrationState.preload(context);
+			final List<String> sortedTags = sortedCopy(tags);
 
-			if (registrationId == null)
+			registrationExecutor.execute(new Runnable()
 			{
-                UnregistrationResponse response = new UnregistrationResponse(UnregistrationResponse.Result.NOT_REGISTERED);
-				callOnSuccess(callback, response);
-				return;
-			}
+				@Override
+				public void run()
+				{
+					retries.resume(context);
+					retries.clear(context, RetryScheduler.Kind.UNREGISTER);
+
+					if (sortedTags.isEmpty())
+					{
+						retries.clear(context, RetryScheduler.Kind.REGISTER);
+					}
+				}
+			});
 
-			sendUnregistrationInBackground(context, tags, callback);
+			unregistrations.execute(sortedTags, newUnregistrationOperation(context, sortedTags), operation);
+		}
+		else
+		{
+			callOnFailure(operation.asCallback(), "Google Play Services not available", null);
 		}
+
+		return operation;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void sendUnregistrationInBackground(final Context context, List<String> tags, final StarFlightCallback<UnregistrationResponse> callback)
+	private SingleFlight.Operation<UnregistrationResponse> newUnregistrationOperation(final Context context, final List<String> tags)
 	{
-		final String registrationId = getRegistrationId(context);
-
-        new AsyncTask<List<String>, Void, Void>()
+		return new SingleFlight.Operation<UnregistrationResponse>()
 		{
 			@Override
-			protected Void doInBackground(List<String> ... params)
+			public void run(StarFlightCallback<UnregistrationResponse> callback, Cancellation cancellation)
 			{
-				List<String> tags = params[0];
-                UnregistrationResponse response = null;
-
-				if (tags != null && tags.size() > 0)
-				{
-					// only unregister the specified tags
-					// Unregister tags from server
+				cancellation.cancelAfter(operationTimeout);
 
-                    try
-                    {
-                        response = sendUnregistrationToBackend(registrationId, tags);
-                        removeTagsFromStorage(context, tags);
-                    }
-                    catch (IOException e)
-                    {
-                        callOnFailure(callback, "Unregistration failed: " + e.getMessage(), e);
-                    }
-				}
-				else
+				if (getRegistrationId(context) == null)
 				{
-					// Unregister completely
-					GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(context);
-
-					try
-					{
-                        response = sendUnregistrationToBackend(registrationId, null);
-                        removeRegistrationFromStorage(context);
-                        gcm.unregister();
-					}
-					catch (IOException ex)
-					{
-						callOnFailure(callback, "Unregistration failed: " + ex.getMessage(), ex);
-					}
-				}
-
-                if (response != null)
-                {
+					UnregistrationResponse response = new UnregistrationResponse(UnregistrationResponse.Result.NOT_REGISTERED);
 					callOnSuccess(callback, response);
-                }
+					return;
+				}
 
-                return null;
+				sendUnregistration(context, tags, callback, cancellation);
 			}
-		}.execute(tags);
+		};
 	}
 
-	@SuppressWarnings("unchecked")
-	private void sendRegistrationIdIfNeeded(final Context context, List<String> tags, final StarFlightCallback<RegistrationResponse> callback)
+	/**
+	 * <p>Adds the supplied tags to the current registration, or registers for push notifications with them if no
+	 * registration exists yet. The caller's other tags are kept.</p>
+	 *
+	 * <p>Tag changes made in quick succession are merged and sent in a single request.</p>
+	 * @param tags the tags to add, null is treated as no tags
+	 * @param callback callback that will be notified of success or failure
+	 * @return a handle of the change; cancelling it stops waiting for the result, but the change is still sent
+	 */
+	public StarFlightOperation<RegistrationResponse> addTags(Activity activity, List<String> tags, StarFlightCallback<RegistrationResponse> callback)
 	{
-		if(tags == null){
-			tags = Collections.<String>emptyList();
-		}
-		Collections.sort(tags);
+		StarFlightOperation<RegistrationResponse> operation = newOperation(callback);
 
-		final SharedPreferences preferences = getStarFlightPreferences(context);
-		final String lastSentId = preferences.getString(PROPERTY_LAST_SENT_REG_ID, "");
-		final long lastRegistrationTime = preferences.getLong(PROPERTY_LAST_REGISTRATION_TIME, -1);
-		String registeredTags = preferences.getString(PROPERTY_REGISTERED_TAGS, "");
-		final String registrationId = getRegistrationId(context);
-		final boolean shouldSend;
-
-		if (lastRegistrationTime == -1 || System.currentTimeMillis() - lastRegistrationTime > REGISTRATION_REFRESH_INTERVAL)
+		if (checkPlayServices(activity))
 		{
-			shouldSend = true;
+			synchronized (tagChangesLock)
+			{
+				getPendingTagChanges(activity).add(tags, operation.asCallback());
+			}
 		}
-		else if (!lastSentId.equals(registrationId))
+		else
 		{
-			shouldSend = true;
+			callOnFailure(operation.asCallback(), "Google Play Services not available", null);
 		}
-		else if (!registeredTags.equals(join(tags, ",")))
+
+		return operation;
+	}
+
+	/**
+	 * <p>Removes the supplied tags from the current registration. Only the removed tags are sent to the server.</p>
+	 *
+	 * <p>Tag changes made in quick succession are merged and sent in a single request.</p>
+	 * @param tags the tags to remove, null is treated as no tags
+	 * @param callback callback that will be notified of success or failure
+	 * @return a handle of the change; cancelling it stops waiting for the result, but the change is still sent
+	 */
+	public StarFlightOperation<UnregistrationResponse> removeTags(Activity activity, List<String> tags, StarFlightCallback<UnregistrationResponse> callback)
+	{
+		StarFlightOperation<UnregistrationResponse> operation = newOperation(callback);
+
+		if (checkPlayServices(activity))
 		{
-			shouldSend = true;
+			synchronized (tagChangesLock)
+			{
+				getPendingTagChanges(activity).remove(tags, operation.asCallback());
+			}
 		}
 		else
 		{
-			shouldSend = false;
+			callOnFailure(operation.asCallback(), "Google Play Services not available", null);
+		}
+
+		return operation;
+	}
+
+	/**
+	 * Gets the tag changes waiting to be sent, scheduling them to be sent after {@link #TAG_CHANGE_DELAY} if there
+	 * were none yet
+	 */
+	private TagChanges getPendingTagChanges(Context context)
+	{
+		if (pendingTagChanges == null)
+		{
+			pendingTagChanges = new TagChanges();
+			final Context applicationContext = context.getApplicationContext();
+
+			CALLBACK_HANDLER.postDelayed(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final TagChanges changes;
+
+					synchronized (tagChangesLock)
+					{
+						changes = pendingTagChanges;
+						pendingTagChanges = null;
+					}
+
+					registrationExecutor.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							sendTagChanges(applicationContext, changes);
+						}
+					});
+				}
+			}, TAG_CHANGE_DELAY);
+		}
+
+		return pendingTagChanges;
+	}
+
+	/**
+	 * Sends merged tag changes as a single request. Removals are sent as a partial unregistration of just the removed
+	 * tags. Since the push server replaces the tags of a registration instead of adding to them, additions are sent as
+	 * a registration with the complete resulting tag set.
+	 */
+	private void sendTagChanges(Context context, final TagChanges changes)
+	{
+		Set<String> registeredTags = getRegisteredTags(context);
+		boolean registered = getRegistrationId(context) != null;
+
+		if (!registered && changes.added.isEmpty())
+		{
+			for (StarFlightCallback<UnregistrationResponse> callback : changes.removeCallbacks)
+			{
+				callOnSuccess(callback, new UnregistrationResponse(UnregistrationResponse.Result.NOT_REGISTERED));
+			}
+		}
+		else if (!registered || !registeredTags.containsAll(changes.added))
+		{
+			List<String> newTags = new ArrayList<>(changes.applyTo(registeredTags));
+			retries.clear(context, RetryScheduler.Kind.REGISTER);
+			registrations.execute(newTags, newRegistrationOperation(context, newTags), new StarFlightCallback<RegistrationResponse>()
+			{
+				@Override
+				public void onSuccess(RegistrationResponse result)
+				{
+					for (StarFlightCallback<RegistrationResponse> callback : changes.addCallbacks)
+					{
+						callback.onSuccess(result);
+					}
+
+					for (StarFlightCallback<UnregistrationResponse> callback : changes.removeCallbacks)
+					{
+						callback.onSuccess(new UnregistrationResponse(UnregistrationResponse.Result.OK));
+					}
+				}
+
+				@Override
+				public void onFailure(String message, Throwable t)
+				{
+					notifyFailure(changes, message, t);
+				}
+			});
+		}
+		else
+		{
+			List<String> removedTags = new ArrayList<>(changes.removed);
+			removedTags.retainAll(registeredTags);
+			final RegistrationResponse unchanged = new RegistrationResponse(getClientUuid(context), RegistrationResponse.Result.ALREADY_REGISTERED);
+
+			if (removedTags.isEmpty())
+			{
+				for (StarFlightCallback<RegistrationResponse> callback : changes.addCallbacks)
+				{
+					callOnSuccess(callback, unchanged);
+				}
+
+				for (StarFlightCallback<UnregistrationResponse> callback : changes.removeCallbacks)
+				{
+					callOnSuccess(callback, new UnregistrationResponse(UnregistrationResponse.Result.OK));
+				}
+
+				return;
+			}
+
+			unregistrations.execute(removedTags, newUnregistrationOperation(context, removedTags), new StarFlightCallback<UnregistrationResponse>()
+			{
+				@Override
+				public void onSuccess(UnregistrationResponse result)
+				{
+					for (StarFlightCallback<RegistrationResponse> callback : changes.addCallbacks)
+					{
+						callback.onSuccess(unchanged);
+					}
+
+					for (StarFlightCallback<UnregistrationResponse> callback : changes.removeCallbacks)
+					{
+						callback.onSuccess(result);
+					}
+				}
+
+				@Override
+				public void onFailure(String message, Throwable t)
+				{
+					notifyFailure(changes, message, t);
+				}
+			});
+		}
+	}
+
+	private static void notifyFailure(TagChanges changes, String message, Throwable t)
+	{
+		for (StarFlightCallback<RegistrationResponse> callback : changes.addCallbacks)
+		{
+			callback.onFailure(message, t);
+		}
+
+		for (StarFlightCallback<UnregistrationResponse> callback : changes.removeCallbacks)
+		{
+			callback.onFailure(message, t);
+		}
+	}
+
+	/**
+	 * Runs an operation that was scheduled to be retried
+	 */
+	private final RetryScheduler.Listener retryListener = new RetryScheduler.Listener()
+	{
+		@Override
+		public void retry(Context context, RetryScheduler.Kind kind, List<String> tags)
+		{
+			if (kind == RetryScheduler.Kind.REGISTER)
+			{
+				registrations.execute(tags, newRegistrationOperation(context, tags), new StarFlightOperation<RegistrationResponse>());
+			}
+			else
+			{
+				unregistrations.execute(tags, newUnregistrationOperation(context, tags), new StarFlightOperation<UnregistrationResponse>());
+			}
+		}
+	};
+
+	/**
+	 * Schedules a retry of a failed operation if the failure may be temporary. Operations cancelled by all their
+	 * callers are not retried, but operations that timed out are.
+	 */
+	private void onOperationFailed(Context context, RetryScheduler.Kind kind, List<String> tags, Throwable t, Cancellation cancellation)
+	{
+		if (cancellation.isCancelled() && !cancellation.isTimedOut())
+		{
+			return;
+		}
+
+		if (RetryScheduler.isRetryable(t))
+		{
+			retries.schedule(context, kind, tags);
+		}
+		else
+		{
+			retries.clear(context, kind);
+		}
+	}
+
+	private void sendUnregistration(Context context, List<String> tags, StarFlightCallback<UnregistrationResponse> callback, Cancellation cancellation)
+	{
+		final String registrationId = getRegistrationId(context);
+		UnregistrationResponse response = null;
+
+		if (tags.size() > 0)
+		{
+			// only unregister the specified tags
+			// Unregister tags from server
+
+			try
+			{
+				response = sendUnregistrationToBackend(cancellation, registrationId, tags);
+				removeTagsFromStorage(context, tags);
+			}
+			catch (IOException e)
+			{
+				onOperationFailed(context, RetryScheduler.Kind.UNREGISTER, tags, e, cancellation);
+				callOnFailure(callback, "Unregistration failed: " + e.getMessage(), e);
+			}
+		}
+		else
+		{
+			// Unregister completely
+			try
+			{
+				response = sendUnregistrationToBackend(cancellation, registrationId, null);
+				removeRegistrationFromStorage(context);
+				unregisterFromGcm(context, cancellation);
+			}
+			catch (IOException ex)
+			{
+				onOperationFailed(context, RetryScheduler.Kind.UNREGISTER, tags, ex, cancellation);
+				callOnFailure(callback, "Unregistration failed: " + ex.getMessage(), ex);
+			}
+		}
+
+		if (response != null)
+		{
+			retries.clear(context, RetryScheduler.Kind.UNREGISTER);
+			callOnSuccess(callback, response);
+		}
+	}
+
+	private void sendRegistrationIdIfNeeded(Context context, List<String> tags, StarFlightCallback<RegistrationResponse> callback, Cancellation cancellation)
+	{
+		final RegistrationState state = registrationState.get(context);
+		final String registrationId = state.registrationId;
+		final boolean shouldSend;
+
+		if (isRefreshDue(state, System.currentTimeMillis()))
+		{
+			shouldSend = true;
+		}
+		else if (!registrationId.equals(state.lastSentRegistrationId))
+		{
+			shouldSend = true;
+		}
+		else if (!state.hasTags(tags))
+		{
+			shouldSend = true;
+		}
+		else
+		{
+			shouldSend = false;
+		}
+
+		if (shouldSend)
+		{
+			RegistrationResponse response = null;
+
+			try
+			{
+				if (state.clientUuid != null && registrationId.equals(state.lastSentRegistrationId) && state.hasTags(tags))
+				{
+					// only the refresh is due, let the server confirm it has the same registration
+					response = sendConditionalRefreshToBackend(cancellation, registrationId, state.clientUuid, tags);
+				}
+
+				if (response != null && response.getClientUuid().equals(state.clientUuid))
+				{
+					storeRegistrationTime(context, System.currentTimeMillis());
+				}
+				else if (response != null)
+				{
+					// the server refreshed the registration under another client UUID
+					storeRegistration(context, registrationId, tags, response.getClientUuid());
+				}
+				else
+				{
+					response = sendRegistrationIdToBackend(cancellation, registrationId, tags);
+					storeRegistration(context, registrationId, tags, response.getClientUuid());
+				}
+			}
+			catch (IOException e)
+			{
+				onOperationFailed(context, RetryScheduler.Kind.REGISTER, tags, e, cancellation);
+				callOnFailure(callback, "Failed to send registration id to StarFlight: " + e.getMessage(), e);
+			}
+			catch (JSONException e)
+			{
+				onOperationFailed(context, RetryScheduler.Kind.REGISTER, tags, e, cancellation);
+				callOnFailure(callback, "Failed to parse server response: " + e.getMessage(), e);
+			}
+
+			if (response != null)
+			{
+				retries.clear(context, RetryScheduler.Kind.REGISTER);
+				callOnSuccess(callback, response);
+			}
+		}
+		else
+		{
+			RegistrationResponse response = new RegistrationResponse(state.clientUuid, RegistrationResponse.Result.ALREADY_REGISTERED);
+			callOnSuccess(callback, response);
+			Log.i(LOG_TAG, "already registered and refreshing was not necessary");
+		}
+	}
+
+	/**
+	 * Check the device to make sure it has the Google Play Services APK. If it
+	 * doesn't, display a dialog that allows users to download the APK from the
+	 * Google Play Store or enable it in the device's system settings. The result
+	 * is cached until the Google Play Services package changes.
+	 */
+	private static boolean checkPlayServices(Activity activity)
+	{
+		int resultCode = PlayServicesAvailability.getStatus(activity);
+		if (resultCode != ConnectionResult.SUCCESS)
+		{
+			if (GooglePlayServicesUtil.isUserRecoverableError(resultCode))
+			{
+				GooglePlayServicesUtil.getErrorDialog(resultCode, activity, PLAY_SERVICES_RESOLUTION_REQUEST).show();
+			}
+			else
+			{
+				Log.e(LOG_TAG, "This device is not supported.");
+			}
+
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the currently active GCM registration id
+	 * @return the GCM registration id, or null if none exists
+	 */
+	private String getRegistrationId(Context context)
+	{
+		return registrationState.get(context).registrationId;
+	}
+
+	/**
+	 * Gets the client UUID of the current registration. If the stored registration has not been loaded in the
+	 * background yet, it is read right away.
+	 * @param context
+	 * @return the client UUID, or null if the app is not registered for notifications
+	 */
+	public UUID getClientUuid(Context context)
+	{
+		return registrationState.get(context).clientUuid;
+	}
+
+	/**
+	 * Gets the tags of the current registration
+	 */
+	private Set<String> getRegisteredTags(Context context)
+	{
+		return registrationState.get(context).tags;
+	}
+
+	/**
+	 * Gets the Google Cloud Messaging instance, getting it on first use
+	 */
+	private GoogleCloudMessaging getGcm(Context context)
+	{
+		GoogleCloudMessaging instance = gcm;
+
+		if (instance == null)
+		{
+			synchronized (this)
+			{
+				if (gcm == null)
+				{
+					long startTime = System.nanoTime();
+					gcm = GoogleCloudMessaging.getInstance(context.getApplicationContext());
+					gcmInitNanos = System.nanoTime() - startTime;
+				}
+
+				instance = gcm;
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Gets the engine that this client multiplexes its work over
+	 */
+	StarFlightEngine getEngine()
+	{
+		return engine;
+	}
+
+	/**
+	 * Gets how long this client has spent on one-time initialization so far, broken down by kind of work
+	 */
+	public StarFlightStartupTimings getStartupTimings()
+	{
+		return new StarFlightStartupTimings(constructionNanos, registrationState.getLoadNanos(),
+				PlayServicesAvailability.getCheckNanos(), gcmInitNanos);
+	}
+
+	/**
+	 * Gets a GCM registration id. GCM gives no way to cancel or time out its call, so it is made on a thread of its own
+	 * and only waited for until the operation is cancelled; the call is then left to finish by itself.
+	 */
+	private String registerWithGcm(final Context context, Cancellation cancellation) throws IOException
+	{
+		return callGcm(new Callable<String>()
+		{
+			@Override
+			public String call() throws IOException
+			{
+				return getGcm(context).register(senderId);
+			}
+		}, cancellation);
+	}
+
+	/**
+	 * Removes the GCM registration, waiting for it like {@link #registerWithGcm}
+	 */
+	private void unregisterFromGcm(final Context context, Cancellation cancellation) throws IOException
+	{
+		callGcm(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws IOException
+			{
+				getGcm(context).unregister();
+				return null;
+			}
+		}, cancellation);
+	}
+
+	private static <V> V callGcm(Callable<V> call, Cancellation cancellation) throws IOException
+	{
+		cancellation.throwIfCancelled();
+
+		final FutureTask<V> task = new FutureTask<>(call);
+		new Thread(task, "StarFlight GCM").start();
+
+		cancellation.setListener(new Cancellation.Listener()
+		{
+			@Override
+			public void onCancel()
+			{
+				task.cancel(true);
+			}
+		});
+
+		try
+		{
+			return task.get();
+		}
+		catch (CancellationException e)
+		{
+			throw cancellation.newException();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for GCM");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+
+			throw new IOException("GCM call failed", cause);
+		}
+		finally
+		{
+			cancellation.setListener(null);
+		}
+	}
+
+	private void sendNewRegistration(Context context, List<String> tags, StarFlightCallback<RegistrationResponse> callback, Cancellation cancellation)
+	{
+		try
+		{
+			String registrationId = registerWithGcm(context, cancellation);
+
+			RegistrationResponse response = sendRegistrationIdToBackend(cancellation, registrationId, tags);
+			storeRegistration(context, registrationId, tags, response.getClientUuid());
+			retries.clear(context, RetryScheduler.Kind.REGISTER);
+			callOnSuccess(callback, response);
+		}
+		catch (IOException ex)
+		{
+			onOperationFailed(context, RetryScheduler.Kind.REGISTER, tags, ex, cancellation);
+			callOnFailure(callback, "Registration failed: " + ex.getMessage(), ex);
+		}
+		catch (JSONException ex)
+		{
+			onOperationFailed(context, RetryScheduler.Kind.REGISTER, tags, ex, cancellation);
+			callOnFailure(callback, "Failed to parse registration response: " + ex.getMessage(), ex);
+		}
+	}
+
+	UnregistrationResponse sendUnregistrationToBackend(Cancellation cancellation, String registrationId, List<String> tags) throws IOException
+	{
+		// removing tags is not atomic anyway, so each chunk is a separate unregistration any server understands
+		List<List<String>> chunks = tags == null || tags.isEmpty() ? Collections.<List<String>>singletonList(null) : TagSet.of(tags).chunk(MAX_TAGS_PER_REQUEST);
+
+		for (List<String> chunk : chunks)
+		{
+			StarFlightTransport.Response response = transport.post(StarFlightMetrics.Action.UNREGISTER, cancellation, newTagRequest("unregister", registrationId, chunk, 1, 1));
+			int code = response.code;
+
+			if (code != HttpStatus.SC_OK)
+			{
+				throw new StarFlightHttpException(code, "Unexpected HTTP response code: " + code);
+			}
+		}
+
+		Log.i(LOG_TAG, "Unregistration successful");
+		return new UnregistrationResponse(UnregistrationResponse.Result.OK);
+	}
+
+	/**
+	 * Sends the registration to the push server. Tag lists larger than {@link #MAX_TAGS_PER_REQUEST} are sent in
+	 * chunks only once the server has announced that it stages them, otherwise every chunk would replace the tags of
+	 * the previous one, so they are sent in a single request.
+	 * @throws JSONException if the server answers with a success whose body is empty or does not contain a client
+	 * UUID, a protocol error that is not retried
+	 */
+	RegistrationResponse sendRegistrationIdToBackend(Cancellation cancellation, String registrationId, List<String> tags) throws IOException, JSONException
+	{
+		List<List<String>> chunks;
+
+		if (tags == null || tags.isEmpty())
+		{
+			chunks = Collections.singletonList(null);
+		}
+		else if (tags.size() > MAX_TAGS_PER_REQUEST && transport.acceptsTagChunks())
+		{
+			chunks = TagSet.of(tags).chunk(MAX_TAGS_PER_REQUEST);
+		}
+		else
+		{
+			chunks = Collections.singletonList(tags);
+		}
+
+		int last = chunks.size() - 1;
+
+		for (int i = 0; i < last; i++)
+		{
+			// the server stages all chunks but the last one, which replaces the tags with the staged ones
+			StarFlightTransport.Response staged = transport.post(StarFlightMetrics.Action.REGISTER, cancellation, newTagRequest("register", registrationId, chunks.get(i), i + 1, chunks.size()));
+			int code = staged.code;
+
+			if (code < HttpStatus.SC_OK || code >= HttpStatus.SC_MULTIPLE_CHOICES)
+			{
+				throw new StarFlightHttpException(code, "Unexpected HTTP response code: " + code + ", response text: " + staged.body);
+			}
+		}
+
+		RegistrationResponse response = transport.post(StarFlightMetrics.Action.REGISTER, cancellation, newTagRequest("register", registrationId, chunks.get(last), chunks.size(), chunks.size()), REGISTRATION_RESPONSE_PARSER);
+
+		if (response.getClientUuid() == null)
+		{
+			throw new JSONException("Registration response did not contain a client UUID");
+		}
+
+		if (response.getResult() == RegistrationResponse.Result.REGISTERED)
+		{
+			Log.i(LOG_TAG, "Registered push client");
+		}
+		else
+		{
+			Log.i(LOG_TAG, "Push client registration refreshed");
+		}
+
+		return response;
+	}
+
+	/**
+	 * Creates the parameters of a request carrying tags. A tag list sent in several chunks is numbered from 1 to the
+	 * number of chunks.
+	 * @param tags the tags, or null to send none
+	 */
+	private List<NameValuePair> newTagRequest(String action, String registrationId, List<String> tags, int chunk, int chunks)
+	{
+		List<NameValuePair> nameValuePairs = new ArrayList<>();
+		nameValuePairs.add(new BasicNameValuePair("action", action));
+		nameValuePairs.add(new BasicNameValuePair("appId", appId));
+		nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
+		nameValuePairs.add(new BasicNameValuePair("type", "android"));
+		nameValuePairs.add(new BasicNameValuePair("token", registrationId));
+
+		if (tags != null && tags.size() > 0)
+		{
+			nameValuePairs.add(new BasicNameValuePair("tags", join(tags, ",")));
+		}
+
+		if (chunks > 1)
+		{
+			nameValuePairs.add(new BasicNameValuePair("chunk", Integer.toString(chunk)));
+			nameValuePairs.add(new BasicNameValuePair("chunks", Integer.toString(chunks)));
+		}
+
+		return nameValuePairs;
+	}
+
+	/**
+	 * Asks the push server to refresh the registration only if it still has the supplied one, identified by its
+	 * client UUID and fingerprint. An unchanged registration is confirmed with an empty response, and a server that
+	 * refreshed it anyway answers like to a full registration.
+	 * @return the response, or null if the server does not have the same registration or does not support
+	 * conditional refreshes, and the registration has to be sent in full
+	 * @throws StarFlightHttpException if the server answers with any other error
+	 */
+	RegistrationResponse sendConditionalRefreshToBackend(Cancellation cancellation, String registrationId, UUID clientUuid, Collection<String> tags) throws IOException
+	{
+		List<NameValuePair> nameValuePairs = new ArrayList<>();
+		nameValuePairs.add(new BasicNameValuePair("action", "refresh"));
+		nameValuePairs.add(new BasicNameValuePair("appId", appId));
+		nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
+		nameValuePairs.add(new BasicNameValuePair("type", "android"));
+		nameValuePairs.add(new BasicNameValuePair("clientUuid", clientUuid.toString()));
+		nameValuePairs.add(new BasicNameValuePair("fingerprint", getRegistrationFingerprint(appId, registrationId, tags)));
+
+		RegistrationResponse response = transport.post(StarFlightMetrics.Action.REFRESH, cancellation, nameValuePairs, REFRESH_RESPONSE_PARSER);
+
+		if (response == null)
+		{
+			Log.i(LOG_TAG, "Registration changed on the server or conditional refresh not supported, sending it in full");
+			return null;
+		}
+
+		if (response.getClientUuid() == null)
+		{
+			Log.i(LOG_TAG, "Push client registration refreshed, unchanged");
+			return new RegistrationResponse(clientUuid, RegistrationResponse.Result.REFRESHED);
+		}
+
+		Log.i(LOG_TAG, "Push client registration refreshed");
+		return response;
+	}
+
+	/**
+	 * Gets the fingerprint of a registration: a hex encoded hash of the app id, the registration id and the tags, which
+	 * is the same whatever the order of the tags
+	 */
+	static String getRegistrationFingerprint(String appId, String registrationId, Collection<String> tags)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			update(digest, appId);
+			update(digest, registrationId);
+
+			for (String tag : TagSet.of(tags))
+			{
+				update(digest, tag);
+			}
+
+			byte[] hash = digest.digest();
+			StringBuilder fingerprint = new StringBuilder(FINGERPRINT_LENGTH * 2);
+
+			for (int i = 0; i < FINGERPRINT_LENGTH; i++)
+			{
+				fingerprint.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+				fingerprint.append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+
+			return fingerprint.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not supported", e);
+		}
+	}
+
+	/**
+	 * Adds a length-prefixed string to the supplied digest, so that the boundaries between strings are part of the
+	 * hash
+	 */
+	private static void update(MessageDigest digest, String value)
+	{
+		byte[] bytes = value.getBytes(UTF_8);
+		digest.update((byte) (bytes.length >>> 24));
+		digest.update((byte) (bytes.length >>> 16));
+		digest.update((byte) (bytes.length >>> 8));
+		digest.update((byte) bytes.length);
+		digest.update(bytes);
+	}
+
+	/**
+	 * Reads a registration response without buffering its body: error bodies are only read up to
+	 * {@link StarFlightTransport#MAX_ERROR_TEXT_LENGTH} characters, and of a successful response only the client UUID
+	 * is extracted. The client UUID is null if the body is empty or not a JSON object containing one.
+	 */
+	private static final StarFlightTransport.ResponseParser<RegistrationResponse> REGISTRATION_RESPONSE_PARSER = new StarFlightTransport.ResponseParser<RegistrationResponse>()
+	{
+		@Override
+		public RegistrationResponse parse(int code, InputStream body) throws IOException
+		{
+			final RegistrationResponse.Result result;
+
+			if (code == HttpStatus.SC_CREATED)
+			{
+				result = RegistrationResponse.Result.REGISTERED;
+			}
+			else if (code == HttpStatus.SC_OK)
+			{
+				result = RegistrationResponse.Result.REFRESHED;
+			}
+			else
+			{
+				String responseText = StarFlightTransport.readText(body, StarFlightTransport.MAX_ERROR_TEXT_LENGTH);
+				throw new StarFlightHttpException(code, "Unexpected HTTP response code: " + code + ", response text: " + responseText);
+			}
+
+			return new RegistrationResponse(readClientUuid(body), result);
 		}
+	};
 
-		if (shouldSend)
+	/**
+	 * Reads a conditional refresh response. Null is returned when the registration has to be sent in full: the
+	 * server answers 412 when its registration differs, and 400, 404 or 501 when it does not support conditional
+	 * refreshes, as does a success without a client UUID. An unchanged registration yields a response without a
+	 * client UUID, and other errors are thrown.
+	 */
+	private static final StarFlightTransport.ResponseParser<RegistrationResponse> REFRESH_RESPONSE_PARSER = new StarFlightTransport.ResponseParser<RegistrationResponse>()
+	{
+		@Override
+		public RegistrationResponse parse(int code, InputStream body) throws IOException
 		{
-			new AsyncTask<List<String>, Void, Void>()
+			switch (code)
 			{
-				@Override
-				protected Void doInBackground(List<String> ... params)
-				{
-					List<String> tags = null;
-					if (params.length > 0)
-					{
-						tags = params[0];
-					}
+				case HttpStatus.SC_NOT_MODIFIED:
+				case HttpStatus.SC_NO_CONTENT:
+					return new RegistrationResponse(null, RegistrationResponse.Result.REFRESHED);
+				case HttpStatus.SC_BAD_REQUEST:
+				case HttpStatus.SC_NOT_FOUND:
+				case HttpStatus.SC_PRECONDITION_FAILED:
+				case HttpStatus.SC_NOT_IMPLEMENTED:
+					return null;
+				default:
+					break;
+			}
 
-                    RegistrationResponse response = null;
+			if (code < HttpStatus.SC_OK || code >= HttpStatus.SC_MULTIPLE_CHOICES)
+			{
+				String responseText = StarFlightTransport.readText(body, StarFlightTransport.MAX_ERROR_TEXT_LENGTH);
+				throw new StarFlightHttpException(code, "Unexpected HTTP response code: " + code + ", response text: " + responseText);
+			}
 
-                    try
-                    {
-                        response = sendRegistrationIdToBackend(registrationId, tags);
-						storeRegistration(context, registrationId, tags, response.getClientUuid());
-                    }
-					catch (IOException e)
-                    {
-						callOnFailure(callback, "Failed to send registration id to StarFlight: " + e.getMessage(), e);
-                    }
-                    catch (JSONException e)
-                    {
-						callOnFailure(callback, "Failed to parse server response: " + e.getMessage(), e);
-                    }
+			UUID clientUuid = readClientUuid(body);
 
-                    if (response != null)
-                    {
-						callOnSuccess(callback, response);
-                    }
+			if (clientUuid == null)
+			{
+				return null;
+			}
 
-                    return null;
-				}
-			}.execute(tags, null, null);
-		}
-		else
-		{
-			RegistrationResponse response = new RegistrationResponse(getClientUuid(context), RegistrationResponse.Result.ALREADY_REGISTERED);
-			callOnSuccess(callback, response);
-			Log.i(LOG_TAG, "already registered and refreshing was not necessary");
+			return new RegistrationResponse(clientUuid, code == HttpStatus.SC_CREATED ? RegistrationResponse.Result.REGISTERED : RegistrationResponse.Result.REFRESHED);
 		}
-	}
+	};
 
 	/**
-	 * Check the device to make sure it has the Google Play Services APK. If it
-	 * doesn't, display a dialog that allows users to download the APK from the
-	 * Google Play Store or enable it in the device's system settings.
+	 * Reads the client UUID of a registration response body
+	 * @return the client UUID, or null if the body is empty or not a JSON object containing one
 	 */
-	private static boolean checkPlayServices(Activity activity)
+	private static UUID readClientUuid(InputStream body) throws IOException
 	{
-		int resultCode = GooglePlayServicesUtil.isGooglePlayServicesAvailable(activity);
-		if (resultCode != ConnectionResult.SUCCESS)
+		UUID clientUuid = null;
+		JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+
+		try
 		{
-			if (GooglePlayServicesUtil.isUserRecoverableError(resultCode))
-			{
-				GooglePlayServicesUtil.getErrorDialog(resultCode, activity, PLAY_SERVICES_RESOLUTION_REQUEST).show();
-			}
-			else
+			reader.beginObject();
+
+			while (clientUuid == null && reader.hasNext())
 			{
-				Log.e(LOG_TAG, "This device is not supported.");
+				if (reader.nextName().equals("clientUuid") && reader.peek() == JsonToken.STRING)
+				{
+					clientUuid = UUID.fromString(reader.nextString());
+				}
+				else
+				{
+					reader.skipValue();
+				}
 			}
-
-			return false;
 		}
-		return true;
+		catch (EOFException | MalformedJsonException | IllegalStateException | IllegalArgumentException e)
+		{
+			Log.w(LOG_TAG, "Malformed registration response", e);
+		}
+
+		return clientUuid;
 	}
 
 	/**
-	 * Gets the currently active GCM registration id
-	 * @return the GCM registration id, or null if none exists
+	 * Records that the current registration was confirmed by the push server at the supplied time
 	 */
-	private String getRegistrationId(Context context)
+	private void storeRegistrationTime(Context context, final long time)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		return prefs.getString(PROPERTY_REGISTRATION_ID, null);
+		registrationState.update(context, new RegistrationStateStore.Mutation()
+		{
+			@Override
+			public RegistrationState apply(RegistrationState state)
+			{
+				return state.withRegistrationTime(time);
+			}
+		});
 	}
 
-	/**
-	 * Gets the client UUID of the current registration
-	 * @param context
-	 * @return the client UUID, or null if the app is not registered for notifications
-	 */
-	public UUID getClientUuid(Context context)
+	void storeRegistration(Context context, final String registrationId, final List<String> tags, final UUID clientUuid)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		String uuid = prefs.getString(PROPERTY_CLIENT_UUID, null);
-		return (uuid == null ? null : UUID.fromString(uuid));
+		Log.i(LOG_TAG, "Saving GCM registration id " + registrationId);
+		final long time = System.currentTimeMillis();
+
+		registrationState.update(context, new RegistrationStateStore.Mutation()
+		{
+			@Override
+			public RegistrationState apply(RegistrationState state)
+			{
+				return state.withRegistration(registrationId, tags, clientUuid, time);
+			}
+		});
 	}
 
-	private SharedPreferences getStarFlightPreferences(Context context)
+	private void removeRegistrationFromStorage(Context context)
 	{
-		return context.getSharedPreferences(StarFlightClient.class.getSimpleName(), Context.MODE_PRIVATE);
+		registrationState.update(context, new RegistrationStateStore.Mutation()
+		{
+			@Override
+			public RegistrationState apply(RegistrationState state)
+			{
+				return RegistrationState.EMPTY;
+			}
+		});
 	}
 
-	@SuppressWarnings("unchecked")
-	private void getRegistrationIdInBackground(final Context context, List<String> tags, final StarFlightCallback<RegistrationResponse> callback)
+	private void removeTagsFromStorage(Context context, final List<String> tags)
 	{
-		new AsyncTask<List<String>, Void, Void>()
+		registrationState.update(context, new RegistrationStateStore.Mutation()
 		{
 			@Override
-			protected Void doInBackground(List<String> ... params)
+			public RegistrationState apply(RegistrationState state)
 			{
-				try
-				{
-					GoogleCloudMessaging gcm = GoogleCloudMessaging.getInstance(context);
-					String registrationId = gcm.register(senderId);
-
-					List<String> tags = null;
-					if (params.length > 0)
-					{
-						tags = params[0];
-					}
-
-                    RegistrationResponse response = sendRegistrationIdToBackend(registrationId, tags);
-					storeRegistration(context, registrationId, tags, response.getClientUuid());
-					callOnSuccess(callback, response);
-				}
-				catch (IOException ex)
-				{
-					callOnFailure(callback, "Registration failed: " + ex.getMessage(), ex);
-				}
-                catch (JSONException ex)
-                {
-					callOnFailure(callback, "Failed to parse registration response: " + ex.getMessage(), ex);
-                }
-
-                return null;
+				return state.withoutTags(tags);
 			}
-		}.execute(tags, null, null);
+		});
 	}
 
-	private UnregistrationResponse sendUnregistrationToBackend(String registrationId, List<String> tags) throws IOException
+	/**
+	 * Returns a sorted copy of the supplied tags without duplicates, or an empty list if the tags are null
+	 */
+	private static List<String> sortedCopy(List<String> tags)
 	{
-		HttpClient client = new DefaultHttpClient();
-		HttpPost post = new HttpPost(PUSH_SERVER_URL);
-
-        List<NameValuePair> nameValuePairs = new ArrayList<>();
-        nameValuePairs.add(new BasicNameValuePair("action", "unregister"));
-        nameValuePairs.add(new BasicNameValuePair("appId", appId));
-        nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
-        nameValuePairs.add(new BasicNameValuePair("type", "android"));
-        nameValuePairs.add(new BasicNameValuePair("token", registrationId));
+		return new ArrayList<>(TagSet.of(tags));
+	}
 
-        if (tags != null && tags.size() > 0)
-        {
-            nameValuePairs.add(new BasicNameValuePair("tags", join(tags, ",")));
-        }
+	static String join(Collection<?> items, String separator)
+	{
+		if (items != null && items.size() > 0)
+		{
+			StringBuilder joined = new StringBuilder();
+			boolean first = true;
 
-        post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+			for (Object item : items)
+			{
+				if (!first)
+				{
+					joined.append(separator);
+				}
 
-        HttpResponse response = client.execute(post);
-        int code = response.getStatusLine().getStatusCode();
+				joined.append(item);
+				first = false;
+			}
 
-        if (code == HttpStatus.SC_OK)
-        {
-            Log.i(LOG_TAG, "Unregistration successful");
-        }
-        else
-        {
-            throw new IOException("Unexpected HTTP response code: " + code);
-        }
+			return joined.toString();
+		}
 
-		return new UnregistrationResponse(UnregistrationResponse.Result.OK);
+		return null;
 	}
 
-	private RegistrationResponse sendRegistrationIdToBackend(String registrationId, List<String> tags) throws IOException, JSONException
+	/**
+	 * Tells if this app is currently registered for notifications. If the stored registration has not been loaded in
+	 * the background yet, it is read right away.
+	 */
+	public boolean isRegistered(Context context)
 	{
-		HttpClient client = new DefaultHttpClient();
-		HttpPost post = new HttpPost(PUSH_SERVER_URL);
-
-        List<NameValuePair> nameValuePairs = new ArrayList<>();
-        nameValuePairs.add(new BasicNameValuePair("action", "register"));
-        nameValuePairs.add(new BasicNameValuePair("appId", appId));
-        nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
-        nameValuePairs.add(new BasicNameValuePair("type", "android"));
-        nameValuePairs.add(new BasicNameValuePair("token", registrationId));
+		return registrationState.get(context).registrationId != null;
+	}
 
-        if (tags != null && tags.size() > 0)
-        {
-            nameValuePairs.add(new BasicNameValuePair("tags", join(tags, ",")));
-        }
+	/**
+	 * <p>Records that the message with the supplied UUID was opened by the user. Opens are queued persistently and
+	 * reported in batches, so the callback is notified once the batch containing the message has been sent.</p>
+	 *
+	 * <p>Cancelling the returned handle removes the open from the queue if it has not been sent yet. An open whose
+	 * operation timed out stays queued and is still reported later.</p>
+	 * @return a handle with which the report can be cancelled
+	 */
+	public StarFlightOperation<MessageOpenedResponse> messageOpened(Context context, final UUID messageUuid, StarFlightCallback<MessageOpenedResponse> callback)
+	{
+		final Context applicationContext = context.getApplicationContext();
+		final StarFlightOperation<MessageOpenedResponse> operation = newOperation(callback);
 
-        post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+		messageExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (operation.isCancelled())
+				{
+					return;
+				}
 
-        HttpResponse response = client.execute(post);
-        int code = response.getStatusLine().getStatusCode();
-        final RegistrationResponse.Result result;
-		String responseText = EntityUtils.toString(response.getEntity());
+				if (isMessageOpened(applicationContext, messageUuid))
+				{
+					callOnSuccess(operation.asCallback(), new MessageOpenedResponse(MessageOpenedResponse.Result.ALREADY_OPENED));
+					return;
+				}
 
-        if (code == HttpStatus.SC_CREATED)
-        {
-            result = RegistrationResponse.Result.REGISTERED;
-            Log.i(LOG_TAG, "Registered push client");
-        }
-        else if (code == HttpStatus.SC_OK)
-        {
-            result = RegistrationResponse.Result.REFRESHED;
-            Log.i(LOG_TAG, "Push client registration refreshed");
-        }
-        else
-        {
-            throw new IOException("Unexpected HTTP response code: " + code + ", response text: " + responseText);
-        }
+				outbox.add(applicationContext, messageUuid, operation.asCallback());
 
-        JSONObject json = new JSONObject(responseText);
-		UUID clientUuid = UUID.fromString(json.getString("clientUuid"));
+				operation.setAbandonListener(new Cancellation.Listener()
+				{
+					@Override
+					public void onCancel()
+					{
+						outbox.remove(applicationContext, messageUuid, operation.asCallback(), !operation.isTimedOut());
+					}
+				});
 
-        return new RegistrationResponse(clientUuid, result);
-	}
+				if (outbox.size(applicationContext) >= MessageOpenedOutbox.FLUSH_SIZE && openedMessagesAttempt == 0)
+				{
+					sendOpenedMessagesToBackend(applicationContext, true);
+				}
+				else
+				{
+					scheduleOpenedMessagesFlush(applicationContext, MessageOpenedOutbox.FLUSH_DELAY);
+				}
+			}
+		});
 
-	private void storeRegistration(Context context, String registrationId, List<String> tags, UUID clientUuid)
-	{
-		if(tags == null){
-			tags = Collections.<String>emptyList();
-		}
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		Log.i(LOG_TAG, "Saving GCM registration id " + registrationId);
-		SharedPreferences.Editor editor = prefs.edit();
-		editor.putString(PROPERTY_REGISTRATION_ID, registrationId);
-        editor.putString(PROPERTY_LAST_SENT_REG_ID, registrationId);
-		editor.putLong(PROPERTY_LAST_REGISTRATION_TIME, System.currentTimeMillis());
-		editor.putString(PROPERTY_REGISTERED_TAGS, join(tags, ","));
-		editor.putString(PROPERTY_CLIENT_UUID, clientUuid.toString());
-		editor.apply();
+		return operation;
 	}
 
-	private void removeRegistrationFromStorage(Context context)
+	/**
+	 * Reports all queued message opens to the push server right away, including opens queued by a previous run of
+	 * the application that could not be reported at the time.
+	 */
+	public void flushOpenedMessages(Context context)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		SharedPreferences.Editor editor = prefs.edit();
-		editor.clear();
-		editor.apply();
+		flushOpenedMessages(context, false);
 	}
 
-	private void removeTagsFromStorage(Context context, List<String> tags)
+	/**
+	 * Reports all queued message opens on the message lane
+	 * @param deferrable whether the report may be held until connected if the device is offline
+	 */
+	private void flushOpenedMessages(Context context, final boolean deferrable)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
+		final Context applicationContext = context.getApplicationContext();
 
-		if (tags != null && tags.size() > 0)
+		messageExecutor.execute(new Runnable()
 		{
-			List<String> previousTags = new ArrayList<>(Arrays.asList(prefs.getString(PROPERTY_REGISTERED_TAGS, "").split(",")));
-
-			for (String tag : tags)
+			@Override
+			public void run()
 			{
-				previousTags.remove(tag);
+				sendOpenedMessagesToBackend(applicationContext, deferrable);
 			}
+		});
+	}
 
-			SharedPreferences.Editor editor = prefs.edit();
-			editor.putString(PROPERTY_REGISTERED_TAGS, join(previousTags, ","));
-			editor.apply();
-		}
-		else
+	private void scheduleOpenedMessagesFlush(Context context, long delay)
+	{
+		if (openedMessagesFlushScheduled.compareAndSet(false, true))
 		{
-			// no tags specified, we remove them all
-			SharedPreferences.Editor editor = prefs.edit();
-			editor.remove(PROPERTY_REGISTERED_TAGS);
-			editor.apply();
+			final Context applicationContext = context.getApplicationContext();
+
+			CALLBACK_HANDLER.postDelayed(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					openedMessagesFlushScheduled.set(false);
+					flushOpenedMessages(applicationContext, true);
+				}
+			}, delay);
 		}
 	}
 
-	private static String join(List<String> list, String separator)
+	private void sendOpenedMessagesToBackend(Context context, boolean deferrable)
 	{
-		if (list != null && list.size() > 0)
+		if (deferrable && outbox.size(context) > 0 && deferWhileOffline(context))
 		{
-			StringBuilder joined = new StringBuilder();
+			Log.d(LOG_TAG, "Message open reports deferred until connected");
+			return;
+		}
+
+		List<UUID> batch = outbox.takeBatch(context, getOpenBatchSize());
+
+		while (!batch.isEmpty())
+		{
+			Cancellation cancellation = new Cancellation();
+			cancellation.cancelAfter(operationTimeout);
 
-			for (int i = 0; i < list.size(); i++)
+			try
 			{
-				joined.append(list.get(i));
+				sendMessagesOpenedToBackend(cancellation, getRegistrationId(context), batch);
 
-				if (i < list.size() - 1)
+				for (UUID messageUuid : batch)
 				{
-					joined.append(separator);
+					storeMessageOpened(context, messageUuid);
+				}
+
+				openedMessagesAttempt = 0;
+
+				for (StarFlightCallback<MessageOpenedResponse> callback : outbox.complete(context, batch, false))
+				{
+					callOnSuccess(callback, new MessageOpenedResponse(MessageOpenedResponse.Result.OK));
 				}
 			}
+			catch (IOException ex)
+			{
+				boolean retryable = RetryScheduler.isRetryable(ex) && openedMessagesAttempt < RetryScheduler.MAX_ATTEMPTS;
 
-			return joined.toString();
-		}
+				for (StarFlightCallback<MessageOpenedResponse> callback : outbox.complete(context, batch, retryable))
+				{
+					callOnFailure(callback, "Recording message open failed: " + ex.getMessage(), ex);
+				}
 
-		return null;
+				if (retryable)
+				{
+					openedMessagesAttempt++;
+					long delay = RetryScheduler.getBackoffDelay(openedMessagesAttempt);
+					metrics.onRetryScheduled(StarFlightMetrics.Action.MESSAGE_OPENED, openedMessagesAttempt, delay);
+					scheduleOpenedMessagesFlush(context, delay);
+				}
+				else
+				{
+					openedMessagesAttempt = 0;
+				}
+
+				return;
+			}
+			finally
+			{
+				cancellation.complete();
+			}
+
+			batch = outbox.takeBatch(context, getOpenBatchSize());
+		}
 	}
 
 	/**
-	 * Tells if this app is currently registered for notifications
+	 * Gets how many message opens are reported in one request: a single one until the server has announced that it
+	 * accepts several, since a server that does not would reject the batch
 	 */
-	public boolean isRegistered(Context context)
+	private int getOpenBatchSize()
 	{
-		return getRegistrationId(context) != null;
+		return transport.acceptsOpenBatches() ? MessageOpenedOutbox.MAX_BATCH_SIZE : 1;
 	}
 
 	/**
-	 * Records that the message with the supplied UUID was opened by the user
+	 * Holds non-urgent traffic while the device is offline or on a poor link. The first time it is held, the held
+	 * registration refresh and message open reports are set to resume together once a network that is not a poor link
+	 * is connected, so that they share one radio wake-up. Traffic held for {@link #POOR_LINK_MAX_HOLD} while a poor
+	 * link is connected is then sent over it, again together, and stops waiting for a better network.
+	 * @return true if the device is offline or on a poor link and the caller should not send now
 	 */
-	public void messageOpened(final Context context, final UUID messageUuid, final StarFlightCallback<MessageOpenedResponse> callback)
+	private boolean deferWhileOffline(Context context)
 	{
-		if (isMessageOpened(context, messageUuid))
+		final StarFlightConnectivity current = connectivity;
+
+		if (current.isConnected(context) && !current.isPoorLink(context))
 		{
-			callOnSuccess(callback, new MessageOpenedResponse(MessageOpenedResponse.Result.ALREADY_OPENED));
-			return;
+			return false;
 		}
 
-		final String registrationId = getRegistrationId(context);
-
-		new AsyncTask<Void, Void, Void>()
+		if (waitingForConnectivity.compareAndSet(false, true))
 		{
-			@Override
-			protected Void doInBackground(Void ... params)
+			final Context applicationContext = context.getApplicationContext();
+			final AtomicBoolean resumed = new AtomicBoolean();
+
+			final Runnable connectedListener = new Runnable()
 			{
-				try
+				@Override
+				public void run()
 				{
-					HttpClient client = new DefaultHttpClient();
-					HttpPost post = new HttpPost(PUSH_SERVER_URL);
+					if (resumed.compareAndSet(false, true))
+					{
+						resumeDeferredTraffic(applicationContext, true);
+					}
+				}
+			};
 
-					List<NameValuePair> nameValuePairs = new ArrayList<>();
-					nameValuePairs.add(new BasicNameValuePair("action", "message_opened"));
-					nameValuePairs.add(new BasicNameValuePair("appId", appId));
-					nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
-					nameValuePairs.add(new BasicNameValuePair("type", "android"));
-					nameValuePairs.add(new BasicNameValuePair("token", registrationId));
-					nameValuePairs.add(new BasicNameValuePair("uuid", messageUuid.toString()));
-					post.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+			current.whenConnected(applicationContext, connectedListener);
 
-					HttpResponse response = client.execute(post);
-					int code = response.getStatusLine().getStatusCode();
+			CALLBACK_HANDLER.postDelayed(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if (resumed.get())
+					{
+						return;
+					}
 
-					if (code != HttpStatus.SC_OK)
+					if (!current.isConnected(applicationContext))
 					{
-						throw new IOException("Unexpected HTTP response code: " + code + ", response text: " + EntityUtils.toString(response.getEntity()));
+						CALLBACK_HANDLER.postDelayed(this, POOR_LINK_MAX_HOLD);
+						return;
 					}
 
-					storeMessageOpened(context, messageUuid);
-					callOnSuccess(callback, new MessageOpenedResponse(MessageOpenedResponse.Result.OK));
-				}
-				catch (IOException ex)
-				{
-					callOnFailure(callback, "Recording message open failed: " + ex.getMessage(), ex);
+					if (resumed.compareAndSet(false, true))
+					{
+						Log.d(LOG_TAG, "Sending deferred traffic over a poor link");
+						current.cancelWhenConnected(applicationContext, connectedListener);
+						resumeDeferredTraffic(applicationContext, false);
+					}
 				}
+			}, POOR_LINK_MAX_HOLD);
+		}
 
-				return null;
+		return true;
+	}
+
+	/**
+	 * Sends the held registration refresh and message open reports
+	 * @param deferrable whether they may be held again, false to send them even over a poor link
+	 */
+	private void resumeDeferredTraffic(final Context context, final boolean deferrable)
+	{
+		waitingForConnectivity.set(false);
+
+		registrationExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				refreshRegistrationIfDue(context, deferrable);
 			}
-		}.execute(null, null, null);
+		});
+
+		flushOpenedMessages(context, deferrable);
+	}
+
+	/**
+	 * Reports the opening of the supplied messages to the push server in a single request. Several messages may only
+	 * be reported together once the server has announced that it accepts them, see {@link #getOpenBatchSize}.
+	 */
+	void sendMessagesOpenedToBackend(Cancellation cancellation, String registrationId, List<UUID> messageUuids) throws IOException
+	{
+		List<NameValuePair> nameValuePairs = new ArrayList<>();
+		nameValuePairs.add(new BasicNameValuePair("action", "message_opened"));
+		nameValuePairs.add(new BasicNameValuePair("appId", appId));
+		nameValuePairs.add(new BasicNameValuePair("clientSecret", clientSecret));
+		nameValuePairs.add(new BasicNameValuePair("type", "android"));
+		nameValuePairs.add(new BasicNameValuePair("token", registrationId));
+
+		if (messageUuids.size() == 1)
+		{
+			nameValuePairs.add(new BasicNameValuePair("uuid", messageUuids.get(0).toString()));
+		}
+		else
+		{
+			nameValuePairs.add(new BasicNameValuePair("uuids", join(messageUuids, ",")));
+		}
+
+		StarFlightTransport.Response response = transport.post(StarFlightMetrics.Action.MESSAGE_OPENED, cancellation, nameValuePairs);
+		int code = response.code;
+
+		if (code != HttpStatus.SC_OK)
+		{
+			throw new StarFlightHttpException(code, "Unexpected HTTP response code: " + code + ", response text: " + response.body);
+		}
 	}
 
 	/**
@@ -598,8 +1802,7 @@ public class StarFlightClient
 	 */
 	private boolean isMessageOpened(Context context, UUID messageUuid)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		return Arrays.asList(prefs.getString(PROPERTY_OPENED_MESSAGES, "").split(",")).contains(messageUuid.toString());
+		return openedMessages.contains(context, messageUuid);
 	}
 
 	/**
@@ -607,56 +1810,29 @@ public class StarFlightClient
 	 */
 	private void storeMessageOpened(Context context, UUID messageUuid)
 	{
-		final SharedPreferences prefs = getStarFlightPreferences(context);
-		SharedPreferences.Editor editor = prefs.edit();
-		List<String> openedMessageUuids = Arrays.asList(prefs.getString(PROPERTY_OPENED_MESSAGES, "").split(","));
-
-		if (!openedMessageUuids.contains(messageUuid.toString()))
-		{
-			String newValue = join(openedMessageUuids, ",") + (openedMessageUuids.size() == 0 ? "" : ",") + messageUuid;
-			editor.putString(PROPERTY_OPENED_MESSAGES, newValue);
-		}
-
-		editor.apply();
+		openedMessages.add(context, messageUuid);
 	}
 
 	/**
-	 * Calls the onSuccess method of the supplied callback if the callback is not null
+	 * Calls the onSuccess method of the supplied callback if the callback is not null. The callbacks of the application
+	 * are behind {@link StarFlightOperation} handles, which call them on the executor of their choice.
 	 */
-	private static <T extends StarFlightResponse> void callOnSuccess(final StarFlightCallback<T> callback, final T response)
+	private static <T extends StarFlightResponse> void callOnSuccess(StarFlightCallback<T> callback, T response)
 	{
-		if (callback == null)
+		if (callback != null)
 		{
-			return;
+			callback.onSuccess(response);
 		}
-
-		CALLBACK_HANDLER.post(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				callback.onSuccess(response);
-			}
-		});
 	}
 
 	/**
 	 * Calls the onFailure method of the supplied callback if the callback is not null
 	 */
-	private static void callOnFailure(final StarFlightCallback<? extends StarFlightResponse> callback, final String message, final Throwable t)
+	private static void callOnFailure(StarFlightCallback<? extends StarFlightResponse> callback, String message, Throwable t)
 	{
-		if (callback == null)
+		if (callback != null)
 		{
-			return;
+			callback.onFailure(message, t);
 		}
-
-		CALLBACK_HANDLER.post(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				callback.onFailure(message, t);
-			}
-		});
 	}
 }
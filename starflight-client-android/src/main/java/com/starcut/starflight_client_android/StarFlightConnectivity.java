@@ -0,0 +1,37 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+/**
+ * <p>Tells StarFlight whether the device can currently reach the network, and whether over a poor link. Non-urgent
+ * traffic, such as message open reports and registration refreshes, is held while the device is offline or on a poor
+ * link, and sent together once a better network is connected, so that the radio is woken up once for all of it.
+ * Traffic held on a poor link for too long is sent over it anyway.</p>
+ *
+ * <p>The default implementation uses the system connectivity state. Install another one with
+ * {@link StarFlightClient#setConnectivity}, for example a fake network state in tests.</p>
+ */
+public interface StarFlightConnectivity
+{
+	/**
+	 * Tells if the network can currently be used
+	 */
+	boolean isConnected(Context context);
+
+	/**
+	 * Tells if the network in use is slow or expensive enough that non-urgent traffic should wait for a better one,
+	 * for example a 2G or roaming mobile network
+	 */
+	boolean isPoorLink(Context context);
+
+	/**
+	 * Runs the supplied listener once, the next time the network can be used and is not a poor link. The listener may
+	 * be run on any thread, and right away if such a network can already be used.
+	 */
+	void whenConnected(Context context, Runnable listener);
+
+	/**
+	 * Stops waiting to run a listener passed to {@link #whenConnected}, if it has not been run yet
+	 */
+	void cancelWhenConnected(Context context, Runnable listener);
+}
@@ -0,0 +1,104 @@
+package com.starcut.starflight_client_android;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>The resources that StarFlight clients multiplex their work over: the executor that runs background work and
+ * the pooled HTTP connections to a push server. Clients of several StarFlight apps can share one engine, so that an
+ * application registering with several apps keeps a single set of connections and threads.</p>
+ *
+ * <p>Clients constructed without an engine share the engine of their executor and server URL. The connection
+ * timeouts set on an engine apply to all of its clients. A shared engine, and its executor, is released once none of
+ * its clients is in use anymore, except for the default engine, which lives as long as the process.</p>
+ */
+public final class StarFlightEngine
+{
+	private static final Map<Executor, Map<String, WeakReference<StarFlightEngine>>> ENGINES = new WeakHashMap<>();
+
+	private static StarFlightEngine defaultEngine;
+
+	private final Executor executor;
+	private final StarFlightTransport transport;
+
+	/**
+	 * Constructs a new engine
+	 * @param executor the executor used for network and storage operations
+	 * @param serverUrl the URL of the push server endpoint
+	 */
+	public StarFlightEngine(Executor executor, String serverUrl)
+	{
+		this.executor = executor;
+		this.transport = new StarFlightTransport(serverUrl);
+	}
+
+	/**
+	 * Gets the engine that uses the default StarFlight executor and the production push server
+	 */
+	public static synchronized StarFlightEngine getDefault()
+	{
+		if (defaultEngine == null)
+		{
+			defaultEngine = get(StarFlightExecutors.getDefaultExecutor(), StarFlightClient.PUSH_SERVER_URL);
+		}
+
+		return defaultEngine;
+	}
+
+	/**
+	 * Gets the shared engine of the supplied executor and push server, creating it on first use
+	 */
+	static synchronized StarFlightEngine get(Executor executor, String serverUrl)
+	{
+		Map<String, WeakReference<StarFlightEngine>> engines = ENGINES.get(executor);
+
+		if (engines == null)
+		{
+			engines = new HashMap<>();
+			ENGINES.put(executor, engines);
+		}
+
+		WeakReference<StarFlightEngine> reference = engines.get(serverUrl);
+		StarFlightEngine engine = reference == null ? null : reference.get();
+
+		if (engine == null)
+		{
+			engine = new StarFlightEngine(executor, serverUrl);
+			engines.put(serverUrl, new WeakReference<>(engine));
+		}
+
+		return engine;
+	}
+
+	/**
+	 * Sets how long to wait for a connection to the push server to be established, and for one of the pooled
+	 * connections to become available. The default is 15 seconds.
+	 * @param connectTimeout the timeout in milliseconds, or 0 to wait indefinitely
+	 */
+	public void setConnectTimeout(int connectTimeout)
+	{
+		transport.setConnectTimeout(connectTimeout);
+	}
+
+	/**
+	 * Sets how long to wait for data from the push server once a request has been sent. The default is 30 seconds.
+	 * @param readTimeout the timeout in milliseconds, or 0 to wait indefinitely
+	 */
+	public void setReadTimeout(int readTimeout)
+	{
+		transport.setReadTimeout(readTimeout);
+	}
+
+	Executor getExecutor()
+	{
+		return executor;
+	}
+
+	StarFlightTransport getTransport()
+	{
+		return transport;
+	}
+}
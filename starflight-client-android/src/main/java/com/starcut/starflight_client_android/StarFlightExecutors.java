@@ -0,0 +1,193 @@
+package com.starcut.starflight_client_android;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors used by StarFlight for its background work, kept separate from the process wide AsyncTask executor so
+ * that StarFlight and the host application never wait for each other's tasks.
+ */
+class StarFlightExecutors
+{
+	private static final int POOL_SIZE = 2;
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static final int RECEIVE_POOL_SIZE = 2;
+	private static final int RECEIVE_QUEUE_CAPACITY = 8;
+
+	private static Executor defaultExecutor;
+	private static Executor receiveExecutor;
+	private static ScheduledExecutorService timeoutScheduler;
+
+	private StarFlightExecutors()
+	{
+	}
+
+	/**
+	 * Gets the small pool of named background threads used when the application does not supply its own executor.
+	 * Its queue is unbounded so that it never rejects work: most of it is submitted one task at a time per
+	 * {@link SerialExecutor}.
+	 */
+	static synchronized Executor getDefaultExecutor()
+	{
+		if (defaultExecutor == null)
+		{
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), newThreadFactory("StarFlight #", Process.THREAD_PRIORITY_BACKGROUND));
+			executor.allowCoreThreadTimeOut(true);
+			defaultExecutor = executor;
+		}
+
+		return defaultExecutor;
+	}
+
+	/**
+	 * Gets the small pool on which received push notifications are handled. Its queue is bounded, since every queued
+	 * notification keeps its broadcast pending: once it is full, further notifications are rejected and handled on
+	 * the thread that received them.
+	 */
+	static synchronized Executor getReceiveExecutor()
+	{
+		if (receiveExecutor == null)
+		{
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(RECEIVE_POOL_SIZE, RECEIVE_POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(RECEIVE_QUEUE_CAPACITY), newThreadFactory("StarFlight receiver #", Process.THREAD_PRIORITY_DEFAULT));
+			executor.allowCoreThreadTimeOut(true);
+			receiveExecutor = executor;
+		}
+
+		return receiveExecutor;
+	}
+
+	/**
+	 * Gets the single thread on which operation deadlines are enforced. Its tasks only flag and abort operations, or
+	 * hand work over to other executors, so they never block.
+	 */
+	static synchronized ScheduledExecutorService getTimeoutScheduler()
+	{
+		if (timeoutScheduler == null)
+		{
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, newThreadFactory("StarFlight timeouts #", Process.THREAD_PRIORITY_DEFAULT));
+			executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+			executor.allowCoreThreadTimeOut(true);
+			timeoutScheduler = executor;
+		}
+
+		return timeoutScheduler;
+	}
+
+	private static ThreadFactory newThreadFactory(final String namePrefix, final int priority)
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger(1);
+
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				return new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Process.setThreadPriority(priority);
+						runnable.run();
+					}
+				}, namePrefix + count.getAndIncrement());
+			}
+		};
+	}
+
+	/**
+	 * Runs tasks one at a time, in submission order, on top of another executor. If the other executor rejects a
+	 * task, the task is tried again later.
+	 */
+	static class SerialExecutor implements Executor
+	{
+		/**
+		 * How long in milliseconds to wait before submitting a rejected task again
+		 */
+		private static final long REJECTED_RETRY_DELAY = 1000;
+
+		private final Executor executor;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+		private Runnable active;
+
+		SerialExecutor(Executor executor)
+		{
+			this.executor = executor;
+		}
+
+		@Override
+		public synchronized void execute(final Runnable task)
+		{
+			tasks.offer(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						task.run();
+					}
+					finally
+					{
+						scheduleNext();
+					}
+				}
+			});
+
+			if (active == null)
+			{
+				scheduleNext();
+			}
+		}
+
+		private synchronized void scheduleNext()
+		{
+			active = tasks.poll();
+
+			if (active != null)
+			{
+				try
+				{
+					executor.execute(active);
+				}
+				catch (RejectedExecutionException e)
+				{
+					// a task that never runs would stall this executor for good, so put it back and try again later
+					Log.w(StarFlightUtils.LOG_TAG, "Background task rejected, retrying in " + REJECTED_RETRY_DELAY + " ms", e);
+					tasks.addFirst(active);
+					active = null;
+					getTimeoutScheduler().schedule(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							resume();
+						}
+					}, REJECTED_RETRY_DELAY, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+
+		private synchronized void resume()
+		{
+			if (active == null)
+			{
+				scheduleNext();
+			}
+		}
+	}
+}
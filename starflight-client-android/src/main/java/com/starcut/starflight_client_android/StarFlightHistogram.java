@@ -0,0 +1,82 @@
+package com.starcut.starflight_client_android;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency histogram with exponentially sized buckets, for aggregating the latencies reported to
+ * {@link StarFlightMetrics}. Recording a value does not allocate. Bucket {@code i} counts latencies from
+ * {@code 2^i} up to {@code 2^(i+1)} microseconds, so percentiles are accurate to within a factor of two.
+ */
+public final class StarFlightHistogram
+{
+	private static final int BUCKET_COUNT = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * Records a latency
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		long micros = Math.max(1, nanos / 1000);
+		int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Gets the number of recorded latencies
+	 */
+	public long getCount()
+	{
+		long count = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			count += counts.get(i);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets an upper bound of the supplied percentile of the recorded latencies
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long count = getCount();
+
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += counts.get(i);
+
+			if (seen >= rank && seen > 0)
+			{
+				return (2L << i) * 1000;
+			}
+		}
+
+		return (2L << (BUCKET_COUNT - 1)) * 1000;
+	}
+
+	/**
+	 * Removes all recorded latencies
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			counts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.starcut.starflight_client_android;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the StarFlight push server responds with an unexpected HTTP status code
+ */
+public class StarFlightHttpException extends IOException
+{
+	private final int statusCode;
+
+	StarFlightHttpException(int statusCode, String message)
+	{
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * Gets the HTTP status code returned by the push server
+	 */
+	public int getStatusCode()
+	{
+		return statusCode;
+	}
+
+	/**
+	 * Tells if the request may succeed when repeated later, i.e. the server reported a temporary condition
+	 */
+	public boolean isRetryable()
+	{
+		return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+	}
+}
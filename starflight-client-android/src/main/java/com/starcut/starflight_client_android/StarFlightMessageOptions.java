@@ -0,0 +1,198 @@
+package com.starcut.starflight_client_android;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Read-only view of the extra options of a StarFlight push notification, i.e. its data other than the text, URL and
+ * UUID. Values are read from the received extras on demand, so options that are never looked at cost nothing.
+ */
+public final class StarFlightMessageOptions
+{
+	private final Bundle extras;
+	private JSONObject json;
+
+	StarFlightMessageOptions(Bundle extras)
+	{
+		this.extras = extras;
+	}
+
+	/**
+	 * Tells if the supplied option is set
+	 */
+	public boolean has(String key)
+	{
+		return !isReserved(key) && extras.containsKey(key);
+	}
+
+	/**
+	 * Gets the value of the supplied option as a string
+	 * @return the value, or null if the option is not set
+	 */
+	public String getString(String key)
+	{
+		return getString(key, null);
+	}
+
+	/**
+	 * Gets the value of the supplied option as a string
+	 * @return the value, or the supplied default value if the option is not set
+	 */
+	public String getString(String key, String defaultValue)
+	{
+		Object value = get(key);
+		return value == null ? defaultValue : value.toString();
+	}
+
+	/**
+	 * Gets the value of the supplied option as an integer
+	 * @return the value, or the supplied default value if the option is not set or is not an integer in the range of
+	 * an int
+	 */
+	public int getInt(String key, int defaultValue)
+	{
+		long value = getLong(key, defaultValue);
+
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+		{
+			Log.w(StarFlightUtils.LOG_TAG, "Option " + key + " is out of the range of an int: " + value);
+			return defaultValue;
+		}
+
+		return (int) value;
+	}
+
+	/**
+	 * Gets the value of the supplied option as a long
+	 * @return the value, or the supplied default value if the option is not set or is not an integer
+	 */
+	public long getLong(String key, long defaultValue)
+	{
+		Object value = get(key);
+
+		if (value instanceof Number)
+		{
+			return ((Number) value).longValue();
+		}
+
+		if (value != null)
+		{
+			try
+			{
+				return Long.parseLong(value.toString().trim());
+			}
+			catch (NumberFormatException e)
+			{
+				Log.w(StarFlightUtils.LOG_TAG, "Option " + key + " is not an integer: " + value);
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Gets the value of the supplied option as a boolean
+	 * @return the value, or the supplied default value if the option is not set or is not a boolean
+	 */
+	public boolean getBoolean(String key, boolean defaultValue)
+	{
+		Object value = get(key);
+
+		if (value instanceof Boolean)
+		{
+			return (Boolean) value;
+		}
+
+		if (value != null)
+		{
+			String text = value.toString().trim();
+
+			if (text.equalsIgnoreCase("true"))
+			{
+				return true;
+			}
+
+			if (text.equalsIgnoreCase("false"))
+			{
+				return false;
+			}
+		}
+
+		return defaultValue;
+	}
+
+	/**
+	 * Parses the value of the supplied option as a JSON array
+	 * @return the array, or null if the option is not set
+	 * @throws JSONException if the value is not a JSON array
+	 */
+	public JSONArray getJSONArray(String key) throws JSONException
+	{
+		String value = getString(key);
+		return value == null ? null : new JSONArray(value);
+	}
+
+	/**
+	 * Gets the names of the options that are set
+	 */
+	public Set<String> keySet()
+	{
+		Set<String> keys = new LinkedHashSet<>(extras.keySet());
+		keys.remove(StarFlightClient.TEXT_KEY);
+		keys.remove(StarFlightClient.URL_KEY);
+		keys.remove(StarFlightBroadcastReceiver.UUID_KEY);
+		return Collections.unmodifiableSet(keys);
+	}
+
+	/**
+	 * Converts the options to a JSON object. The conversion is done once, on the first call.
+	 */
+	public synchronized JSONObject toJSONObject()
+	{
+		if (json == null)
+		{
+			json = new JSONObject();
+
+			for (String key : extras.keySet())
+			{
+				if (!isReserved(key))
+				{
+					try
+					{
+						json.put(key, extras.get(key));
+					}
+					catch (JSONException e)
+					{
+						Log.w(StarFlightUtils.LOG_TAG, "Failed to serialize extra as JSON: " + extras.get(key), e);
+					}
+				}
+			}
+		}
+
+		return json;
+	}
+
+	@Override
+	public String toString()
+	{
+		return toJSONObject().toString();
+	}
+
+	private Object get(String key)
+	{
+		return isReserved(key) ? null : extras.get(key);
+	}
+
+	private static boolean isReserved(String key)
+	{
+		return key.equals(StarFlightClient.TEXT_KEY) || key.equals(StarFlightClient.URL_KEY) || key.equals(StarFlightBroadcastReceiver.UUID_KEY);
+	}
+}
@@ -0,0 +1,79 @@
+package com.starcut.starflight_client_android;
+
+/**
+ * <p>Receives measurements of StarFlight client operations, for example to be forwarded to an analytics or
+ * monitoring system. Install an implementation with {@link StarFlightClient#setMetrics}.</p>
+ *
+ * <p>Measurements are reported as primitive values from the thread that made them, often a network or receiver
+ * thread, so implementations must be thread safe, fast and must not throw. {@link StarFlightHistogram} can be used to
+ * aggregate latencies without allocating.</p>
+ */
+public interface StarFlightMetrics
+{
+	/**
+	 * The kind of request sent to the push server
+	 */
+	enum Action
+	{
+		REGISTER,
+		REFRESH,
+		UNREGISTER,
+		MESSAGE_OPENED
+	}
+
+	/**
+	 * Called when a request to the push server has completed or failed
+	 * @param action the kind of request
+	 * @param latencyNanos the time from sending the request to reading the end of the response, in nanoseconds
+	 * @param statusCode the HTTP status code of the response, or 0 if no response was received
+	 * @param bytesSent the size of the request body in bytes
+	 * @param bytesReceived the number of response body bytes read
+	 */
+	void onRequest(Action action, long latencyNanos, int statusCode, long bytesSent, long bytesReceived);
+
+	/**
+	 * Called when a failed request has been scheduled to be retried
+	 * @param action the kind of request
+	 * @param attempt the number of the upcoming attempt, the first retry being attempt 1
+	 * @param delayMillis the time until the retry in milliseconds
+	 */
+	void onRetryScheduled(Action action, int attempt, long delayMillis);
+
+	/**
+	 * Called when a result is delivered to a {@link StarFlightCallback} or operation listener through an executor
+	 * @param delayNanos the time the result waited for the executor, in nanoseconds
+	 */
+	void onCallbackDispatched(long delayNanos);
+
+	/**
+	 * Called when a received push notification is passed to a {@link StarFlightBroadcastReceiver}
+	 * @param delayNanos the time from receiving the broadcast to passing on the notification, in nanoseconds
+	 */
+	void onMessageDispatched(long delayNanos);
+
+	/**
+	 * Metrics that ignore all measurements
+	 */
+	StarFlightMetrics NONE = new StarFlightMetrics()
+	{
+		@Override
+		public void onRequest(Action action, long latencyNanos, int statusCode, long bytesSent, long bytesReceived)
+		{
+		}
+
+		@Override
+		public void onRetryScheduled(Action action, int attempt, long delayMillis)
+		{
+		}
+
+		@Override
+		public void onCallbackDispatched(long delayNanos)
+		{
+		}
+
+		@Override
+		public void onMessageDispatched(long delayNanos)
+		{
+		}
+	};
+}
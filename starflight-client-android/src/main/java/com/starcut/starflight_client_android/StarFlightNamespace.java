@@ -0,0 +1,214 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>The persistent state of one StarFlight app in this process: its registration, its queued message opens and its
+ * pending retries. Each app's state is kept in preferences files whose names include the app id, so that clients of
+ * different apps do not overwrite each other's state, and all clients of the same app share one instance.</p>
+ *
+ * <p>Earlier versions kept the state of the single supported app in files without the app id, and did not record
+ * which app that was. The state is moved to the app set with {@link #setLegacyAppId}, or, if none is set, to the only
+ * app used in the process, unless that app already has its own state. While clients of several apps are in use and
+ * no legacy app is set, the earlier state is left in place.</p>
+ *
+ * <p>Namespaces are only kept while a client, or work of a client, refers to them. The state of an app is persisted,
+ * so a namespace that is released is read back when the app is used again.</p>
+ */
+class StarFlightNamespace
+{
+	private static final Map<String, WeakReference<StarFlightNamespace>> NAMESPACES = new HashMap<>();
+	private static final Object MIGRATION_LOCK = new Object();
+
+	private static volatile String legacyAppId;
+
+	private final String appId;
+	private final String suffix;
+	private final Set<String> checkedPreferences = new HashSet<>();
+
+	final RegistrationStateStore registrationState;
+	final MessageOpenedOutbox outbox;
+
+	private StarFlightNamespace(String appId, Executor executor)
+	{
+		this.appId = appId;
+		this.suffix = ".app." + sanitize(appId);
+		this.registrationState = new RegistrationStateStore(this, executor);
+		this.outbox = new MessageOpenedOutbox(this);
+	}
+
+	/**
+	 * Gets the namespace of the supplied app, creating it on first use
+	 * @param executor the executor on which the state is loaded and written if the namespace is created, the
+	 * executor of the client asking for it
+	 */
+	static synchronized StarFlightNamespace get(String appId, Executor executor)
+	{
+		WeakReference<StarFlightNamespace> reference = NAMESPACES.get(appId);
+		StarFlightNamespace namespace = reference == null ? null : reference.get();
+
+		if (namespace == null)
+		{
+			namespace = new StarFlightNamespace(appId, executor);
+			NAMESPACES.put(appId, new WeakReference<>(namespace));
+		}
+
+		return namespace;
+	}
+
+	/**
+	 * Sets the app whose state earlier versions kept
+	 * @param appId the app id, or null to move the state to the only app used in the process
+	 */
+	static void setLegacyAppId(String appId)
+	{
+		legacyAppId = appId;
+	}
+
+	/**
+	 * Tells if the state kept by earlier versions belongs to this app
+	 */
+	private boolean ownsLegacyState()
+	{
+		String owner = legacyAppId;
+
+		if (owner != null)
+		{
+			return owner.equals(appId);
+		}
+
+		synchronized (StarFlightNamespace.class)
+		{
+			for (Map.Entry<String, WeakReference<StarFlightNamespace>> entry : NAMESPACES.entrySet())
+			{
+				if (!entry.getKey().equals(appId) && entry.getValue().get() != null)
+				{
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Gets this app's preferences file with the supplied base name, first moving the state of earlier versions into
+	 * it if needed
+	 * @param baseName the name of the file used by earlier versions
+	 * @param retainedKeys keys of the earlier file that are not part of the app's state and are left in place
+	 */
+	SharedPreferences getPreferences(Context context, String baseName, String... retainedKeys)
+	{
+		SharedPreferences prefs = context.getSharedPreferences(baseName + suffix, Context.MODE_PRIVATE);
+
+		synchronized (checkedPreferences)
+		{
+			if (checkedPreferences.add(baseName))
+			{
+				migrate(context, baseName, prefs, retainedKeys);
+			}
+		}
+
+		return prefs;
+	}
+
+	private void migrate(Context context, String baseName, SharedPreferences prefs, String... retainedKeys)
+	{
+		if (!ownsLegacyState())
+		{
+			return;
+		}
+
+		synchronized (MIGRATION_LOCK)
+		{
+			SharedPreferences legacy = context.getSharedPreferences(baseName, Context.MODE_PRIVATE);
+			Map<String, ?> entries = new HashMap<>(legacy.getAll());
+			Set<String> retained = new HashSet<>();
+			Collections.addAll(retained, retainedKeys);
+			entries.keySet().removeAll(retained);
+
+			if (entries.isEmpty())
+			{
+				return;
+			}
+
+			if (prefs.getAll().isEmpty())
+			{
+				Log.i(StarFlightUtils.LOG_TAG, "Moving " + baseName + " to the preferences of app " + appId);
+				SharedPreferences.Editor editor = prefs.edit();
+
+				for (Map.Entry<String, ?> entry : entries.entrySet())
+				{
+					put(editor, entry.getKey(), entry.getValue());
+				}
+
+				editor.commit();
+			}
+
+			SharedPreferences.Editor legacyEditor = legacy.edit();
+
+			for (String key : entries.keySet())
+			{
+				legacyEditor.remove(key);
+			}
+
+			legacyEditor.commit();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void put(SharedPreferences.Editor editor, String key, Object value)
+	{
+		if (value instanceof String)
+		{
+			editor.putString(key, (String) value);
+		}
+		else if (value instanceof Long)
+		{
+			editor.putLong(key, (Long) value);
+		}
+		else if (value instanceof Integer)
+		{
+			editor.putInt(key, (Integer) value);
+		}
+		else if (value instanceof Boolean)
+		{
+			editor.putBoolean(key, (Boolean) value);
+		}
+		else if (value instanceof Float)
+		{
+			editor.putFloat(key, (Float) value);
+		}
+		else if (value instanceof Set)
+		{
+			editor.putStringSet(key, (Set<String>) value);
+		}
+	}
+
+	/**
+	 * Makes an app id safe to use in a file name
+	 */
+	private static String sanitize(String appId)
+	{
+		StringBuilder sanitized = new StringBuilder(appId.length());
+
+		for (int i = 0; i < appId.length(); i++)
+		{
+			char c = appId.charAt(i);
+			boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+			sanitized.append(safe ? c : '_');
+		}
+
+		return sanitized.toString();
+	}
+}
@@ -0,0 +1,366 @@
+package com.starcut.starflight_client_android;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Posts system notifications for received push notifications, coalescing bursts. The first message of a tag is
+ * posted right away; messages of the same tag that arrive within the burst window after it are collected and posted
+ * together as a single summary notification at the end of the window, replacing the previous one.</p>
+ *
+ * <p>Sound and vibration are rate limited across all tags: a notification posted sooner than the minimum alert
+ * interval after the previous alerting one is posted silently. The work queued for a tag is bounded no matter how
+ * fast messages arrive: at most one post is pending per tag, and only the newest lines are kept for the summary. The
+ * messages of a tag are forgotten when its notification is cleared, or dismissed and idle for a burst window, and only
+ * the most recently used tags are remembered.</p>
+ *
+ * <p>An instance is typically kept in a static field of the application's {@link StarFlightBroadcastReceiver}.</p>
+ */
+public class StarFlightNotificationDispatcher
+{
+	/**
+	 * Creates the notifications posted by a dispatcher
+	 */
+	public interface NotificationFactory
+	{
+		/**
+		 * Creates a builder for a notification of the supplied tag, with its icon, title, content intent and alerts
+		 * set. The dispatcher sets the text, style and number, and removes the sound and vibration when rate limited.
+		 */
+		NotificationCompat.Builder createBuilder(Context context, String tag);
+	}
+
+	private static final long DEFAULT_BURST_WINDOW = 1000 * 3; // 3 seconds
+	private static final long DEFAULT_MIN_ALERT_INTERVAL = 1000 * 15; // 15 seconds
+	private static final int MAX_LINES = 6;
+	private static final int MAX_GROUPS = 32;
+	private static final int NOTIFICATION_ID = 0x5f1;
+	private static final String NOTIFICATION_TAG_PREFIX = "starflight:";
+
+	private static Handler defaultHandler;
+
+	private final NotificationFactory factory;
+	private final Handler handler;
+	private final Map<String, Group> groups = new LinkedHashMap<String, Group>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Group> eldest)
+		{
+			// a group waiting to be posted is kept, the map then shrinks again once it is idle
+			return size() > MAX_GROUPS && !eldest.getValue().scheduled;
+		}
+	};
+	private long burstWindow = DEFAULT_BURST_WINDOW;
+	private long minAlertInterval = DEFAULT_MIN_ALERT_INTERVAL;
+	private long lastAlertTime = -1;
+
+	public StarFlightNotificationDispatcher(NotificationFactory factory)
+	{
+		this(factory, null);
+	}
+
+	/**
+	 * Creates a dispatcher that posts its notifications on the supplied handler, or on a shared background thread if
+	 * it is null
+	 */
+	StarFlightNotificationDispatcher(NotificationFactory factory, Handler handler)
+	{
+		this.factory = factory;
+		this.handler = handler;
+	}
+
+	/**
+	 * Sets the time after posting a notification during which further messages of the same tag are collected into a
+	 * summary. The default is 3 seconds.
+	 */
+	public synchronized void setBurstWindow(long burstWindow)
+	{
+		this.burstWindow = burstWindow;
+	}
+
+	/**
+	 * Sets the minimum time between notifications that play a sound or vibrate. The default is 15 seconds.
+	 */
+	public synchronized void setMinAlertInterval(long minAlertInterval)
+	{
+		this.minAlertInterval = minAlertInterval;
+	}
+
+	/**
+	 * Posts, or schedules the posting of, a notification for a message with the supplied tag and text
+	 * @param tag the tag used to group messages, or null for the default group
+	 */
+	public void dispatch(Context context, String tag, String text)
+	{
+		String key = tag == null ? "" : tag;
+		final Group group;
+		long delay;
+
+		synchronized (this)
+		{
+			Group existing = groups.get(key);
+
+			if (existing == null)
+			{
+				existing = new Group(context.getApplicationContext(), key);
+				groups.put(key, existing);
+			}
+
+			group = existing;
+			group.add(text);
+
+			if (group.scheduled)
+			{
+				return;
+			}
+
+			group.scheduled = true;
+			delay = group.lastPostTime < 0 ? 0 : Math.max(0, group.lastPostTime + burstWindow - SystemClock.elapsedRealtime());
+		}
+
+		getHandler().postDelayed(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				post(group);
+			}
+		}, delay);
+	}
+
+	/**
+	 * Removes the notification of the supplied tag and forgets its collected messages, for example when the user has
+	 * opened the content the notification was about
+	 */
+	public void clear(Context context, String tag)
+	{
+		String key = tag == null ? "" : tag;
+
+		synchronized (this)
+		{
+			Group group = groups.remove(key);
+
+			if (group != null)
+			{
+				group.reset();
+			}
+		}
+
+		getNotificationManager(context).cancel(NOTIFICATION_TAG_PREFIX + key, NOTIFICATION_ID);
+	}
+
+	private void post(Group group)
+	{
+		NotificationManager notificationManager = getNotificationManager(group.context);
+		String notificationTag = NOTIFICATION_TAG_PREFIX + group.tag;
+		boolean active = isActive(notificationManager, notificationTag);
+		String[] lines;
+		int count;
+		boolean alert;
+
+		synchronized (this)
+		{
+			if (group.lastPostTime >= 0 && !active)
+			{
+				// the previous notification was dismissed, only summarize what arrived since
+				group.dropPosted();
+			}
+
+			lines = group.lines.toArray(new String[group.lines.size()]);
+			count = group.count;
+			group.scheduled = false;
+			group.posted = count;
+
+			if (count == 0)
+			{
+				return;
+			}
+
+			long now = SystemClock.elapsedRealtime();
+			group.lastPostTime = now;
+			alert = lastAlertTime < 0 || now - lastAlertTime >= minAlertInterval;
+
+			if (alert)
+			{
+				lastAlertTime = now;
+			}
+		}
+
+		NotificationCompat.Builder builder = factory.createBuilder(group.context, group.tag.length() == 0 ? null : group.tag);
+		String latest = lines[lines.length - 1];
+		builder.setContentText(latest);
+
+		if (count == 1)
+		{
+			builder.setStyle(new NotificationCompat.BigTextStyle().bigText(latest));
+		}
+		else
+		{
+			NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+
+			for (int i = lines.length - 1; i >= 0; i--)
+			{
+				style.addLine(lines[i]);
+			}
+
+			if (count > lines.length)
+			{
+				style.setSummaryText("+" + (count - lines.length));
+			}
+
+			builder.setStyle(style).setNumber(count);
+		}
+
+		if (!alert)
+		{
+			builder.setDefaults(0).setSound(null).setVibrate(null);
+		}
+
+		notificationManager.notify(notificationTag, NOTIFICATION_ID, builder.build());
+		schedulePrune(group);
+	}
+
+	/**
+	 * Forgets the supplied group if its notification has been dismissed and no message arrived for a burst window
+	 * after it was posted
+	 */
+	private void schedulePrune(final Group group)
+	{
+		long delay;
+
+		synchronized (this)
+		{
+			delay = burstWindow;
+		}
+
+		getHandler().postDelayed(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+						|| isActive(getNotificationManager(group.context), NOTIFICATION_TAG_PREFIX + group.tag))
+				{
+					return;
+				}
+
+				synchronized (StarFlightNotificationDispatcher.this)
+				{
+					if (groups.get(group.tag) == group && !group.scheduled && group.count == group.posted)
+					{
+						groups.remove(group.tag);
+					}
+				}
+			}
+		}, delay);
+	}
+
+	private static boolean isActive(NotificationManager notificationManager, String notificationTag)
+	{
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+		{
+			// not known before Marshmallow, assume it is still shown
+			return true;
+		}
+
+		for (StatusBarNotification notification : notificationManager.getActiveNotifications())
+		{
+			if (notification.getId() == NOTIFICATION_ID && notificationTag.equals(notification.getTag()))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static NotificationManager getNotificationManager(Context context)
+	{
+		return (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+	}
+
+	private Handler getHandler()
+	{
+		return handler == null ? getDefaultHandler() : handler;
+	}
+
+	private static synchronized Handler getDefaultHandler()
+	{
+		if (defaultHandler == null)
+		{
+			HandlerThread thread = new HandlerThread("StarFlight notifications", Process.THREAD_PRIORITY_BACKGROUND);
+			thread.start();
+			defaultHandler = new Handler(thread.getLooper());
+		}
+
+		return defaultHandler;
+	}
+
+	/**
+	 * The messages of one tag collected since its notification was last cleared
+	 */
+	private static class Group
+	{
+		final Context context;
+		final String tag;
+		final ArrayDeque<String> lines = new ArrayDeque<>(MAX_LINES);
+		int count;
+		int posted;
+		long lastPostTime = -1;
+		boolean scheduled;
+
+		Group(Context context, String tag)
+		{
+			this.context = context;
+			this.tag = tag;
+		}
+
+		void add(String text)
+		{
+			if (lines.size() == MAX_LINES)
+			{
+				lines.removeFirst();
+			}
+
+			lines.addLast(text == null ? "" : text);
+			count++;
+		}
+
+		/**
+		 * Forgets the messages that were included in the last posted notification
+		 */
+		void dropPosted()
+		{
+			int unposted = count - posted;
+			Iterator<String> oldest = lines.iterator();
+
+			for (int i = lines.size() - unposted; i > 0; i--)
+			{
+				oldest.next();
+				oldest.remove();
+			}
+
+			count = unposted;
+			posted = 0;
+		}
+
+		void reset()
+		{
+			lines.clear();
+			count = 0;
+			posted = 0;
+		}
+	}
+}
@@ -0,0 +1,397 @@
+package com.starcut.starflight_client_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <p>Handle of an operation started by a {@link StarFlightClient}. The operation completes exactly once: with its
+ * result, with a failure, when it is cancelled, or when its deadline passes. Listeners are notified of whichever comes
+ * first, each on the executor it was added with.</p>
+ *
+ * <p>Cancelling an operation, or its deadline passing, completes it right away. The work itself is stopped, and its
+ * worker thread freed, once no other caller is waiting for the same work.</p>
+ *
+ * <p>The result can also be waited for with {@link #get}, from a background thread. A failed operation throws an
+ * {@link ExecutionException} whose cause is the failure, a {@link TimeoutException} if its deadline passed.</p>
+ */
+public class StarFlightOperation<T extends StarFlightResponse> implements Future<T>
+{
+	private final List<Runnable> listeners = new ArrayList<>(1);
+	private ScheduledFuture<?> deadline;
+	private Cancellation.Listener abandonListener;
+	private boolean done;
+	private boolean cancelled;
+	private boolean timedOut;
+	private T result;
+	private String failureMessage;
+	private Throwable failure;
+
+	private final StarFlightCallback<T> resultCallback = new StarFlightCallback<T>()
+	{
+		@Override
+		public void onSuccess(T result)
+		{
+			succeed(result);
+		}
+
+		@Override
+		public void onFailure(String message, Throwable t)
+		{
+			fail(message, t);
+		}
+	};
+
+	StarFlightOperation()
+	{
+	}
+
+	/**
+	 * Notifies the supplied callback of the outcome of the operation, on the supplied executor. A cancelled operation
+	 * is reported as a failure with a {@link CancellationException}.
+	 * @param executor the executor on which the callback is called, or null to call it directly on the thread that
+	 * completes the operation, or on the calling thread if it has already completed
+	 */
+	public void addCallback(final StarFlightCallback<T> callback, Executor executor)
+	{
+		addListener(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (failureMessage == null)
+				{
+					callback.onSuccess(result);
+				}
+				else
+				{
+					callback.onFailure(failureMessage, failure);
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * Runs the supplied listener once the operation has completed, on the supplied executor
+	 * @param executor the executor on which the listener is run, or null to run it directly on the thread that
+	 * completes the operation, or on the calling thread if it has already completed
+	 */
+	public void addListener(Runnable listener, Executor executor)
+	{
+		Runnable dispatch = newDispatch(listener, executor);
+
+		synchronized (this)
+		{
+			if (!done)
+			{
+				listeners.add(dispatch);
+				return;
+			}
+		}
+
+		dispatch.run();
+	}
+
+	/**
+	 * Cancels the operation
+	 * @return false if the operation had already completed
+	 */
+	public boolean cancel()
+	{
+		return abandon(false);
+	}
+
+	/**
+	 * Cancels the operation. The work is stopped the same way whatever the value of mayInterruptIfRunning.
+	 * @return false if the operation had already completed
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return cancel();
+	}
+
+	/**
+	 * Tells if the operation was cancelled before it completed
+	 */
+	@Override
+	public synchronized boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Tells if the operation has completed, whether successfully, with a failure, by being cancelled or by timing out
+	 */
+	@Override
+	public synchronized boolean isDone()
+	{
+		return done;
+	}
+
+	/**
+	 * Waits for the operation to complete and gets its result. Must not be called on the main thread.
+	 */
+	@Override
+	public synchronized T get() throws InterruptedException, ExecutionException
+	{
+		while (!done)
+		{
+			wait();
+		}
+
+		return getResult();
+	}
+
+	/**
+	 * Waits at most the supplied time for the operation to complete and gets its result. Must not be called on the
+	 * main thread.
+	 * @throws TimeoutException if the operation did not complete in time, the operation itself goes on
+	 */
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+	{
+		long end = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!done)
+		{
+			long remaining = end - System.nanoTime();
+
+			if (remaining <= 0)
+			{
+				throw new TimeoutException("Operation not completed in time");
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+
+		return getResult();
+	}
+
+	private T getResult() throws ExecutionException
+	{
+		if (cancelled)
+		{
+			throw new CancellationException("Operation cancelled");
+		}
+
+		if (failureMessage != null)
+		{
+			throw new ExecutionException(failureMessage, failure);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Fails the operation with a {@link TimeoutException} unless it completes within the supplied time
+	 * @param timeout the time in milliseconds, or 0 for no deadline
+	 */
+	void setTimeout(long timeout)
+	{
+		if (timeout <= 0)
+		{
+			return;
+		}
+
+		ScheduledFuture<?> scheduled = StarFlightExecutors.getTimeoutScheduler().schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				abandon(true);
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+
+		synchronized (this)
+		{
+			deadline = scheduled;
+		}
+	}
+
+	/**
+	 * Sets the listener notified when the caller stops waiting for the work, because the operation was cancelled or
+	 * timed out. If that has already happened the listener is notified right away.
+	 */
+	void setAbandonListener(Cancellation.Listener listener)
+	{
+		synchronized (this)
+		{
+			if (!done)
+			{
+				abandonListener = listener;
+				return;
+			}
+
+			if (!cancelled && !timedOut)
+			{
+				return;
+			}
+		}
+
+		listener.onCancel();
+	}
+
+	/**
+	 * Gets the callback through which the work reports the result of this operation
+	 */
+	StarFlightCallback<T> asCallback()
+	{
+		return resultCallback;
+	}
+
+	/**
+	 * Tells if the operation failed because its deadline passed
+	 */
+	synchronized boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	private void succeed(T result)
+	{
+		List<Runnable> completed;
+
+		synchronized (this)
+		{
+			if (done)
+			{
+				return;
+			}
+
+			this.result = result;
+			completed = complete();
+		}
+
+		stopDeadline();
+		runAll(completed);
+	}
+
+	private void fail(String message, Throwable t)
+	{
+		List<Runnable> completed;
+
+		synchronized (this)
+		{
+			if (done)
+			{
+				return;
+			}
+
+			failureMessage = message == null ? String.valueOf(t) : message;
+			failure = t;
+			completed = complete();
+		}
+
+		stopDeadline();
+		runAll(completed);
+	}
+
+	private boolean abandon(boolean timedOut)
+	{
+		Cancellation.Listener listener;
+		List<Runnable> completed;
+
+		synchronized (this)
+		{
+			if (done)
+			{
+				return false;
+			}
+
+			cancelled = !timedOut;
+			this.timedOut = timedOut;
+			failureMessage = timedOut ? "Operation timed out" : "Operation cancelled";
+			failure = timedOut ? new TimeoutException(failureMessage) : new CancellationException(failureMessage);
+			listener = abandonListener;
+			completed = complete();
+		}
+
+		if (!timedOut)
+		{
+			stopDeadline();
+		}
+
+		if (listener != null)
+		{
+			listener.onCancel();
+		}
+
+		runAll(completed);
+		return true;
+	}
+
+	/**
+	 * Marks the operation done and takes its listeners, must be called holding the lock
+	 */
+	private List<Runnable> complete()
+	{
+		done = true;
+		abandonListener = null;
+		notifyAll();
+
+		List<Runnable> completed = new ArrayList<>(listeners);
+		listeners.clear();
+		return completed;
+	}
+
+	private void stopDeadline()
+	{
+		ScheduledFuture<?> scheduled;
+
+		synchronized (this)
+		{
+			scheduled = deadline;
+			deadline = null;
+		}
+
+		if (scheduled != null)
+		{
+			scheduled.cancel(false);
+		}
+	}
+
+	private static void runAll(List<Runnable> listeners)
+	{
+		for (Runnable listener : listeners)
+		{
+			listener.run();
+		}
+	}
+
+	/**
+	 * Wraps a listener so that it runs on the supplied executor, reporting the dispatch delay to the metrics
+	 */
+	private static Runnable newDispatch(final Runnable listener, final Executor executor)
+	{
+		if (executor == null)
+		{
+			return listener;
+		}
+
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final long postTime = System.nanoTime();
+
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						StarFlightClient.getMetrics().onCallbackDispatched(System.nanoTime() - postTime);
+						listener.run();
+					}
+				});
+			}
+		};
+	}
+}
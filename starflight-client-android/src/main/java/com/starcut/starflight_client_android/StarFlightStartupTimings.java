@@ -0,0 +1,68 @@
+package com.starcut.starflight_client_android;
+
+/**
+ * Breakdown of the time spent by a {@link StarFlightClient} on one-time initialization work, for finding out how much
+ * the client contributes to application startup. Each duration is in nanoseconds, or -1 if that work has not been
+ * done yet.
+ */
+public final class StarFlightStartupTimings
+{
+	private final long constructionNanos;
+	private final long stateLoadNanos;
+	private final long playServicesCheckNanos;
+	private final long gcmInitNanos;
+
+	StarFlightStartupTimings(long constructionNanos, long stateLoadNanos, long playServicesCheckNanos, long gcmInitNanos)
+	{
+		this.constructionNanos = constructionNanos;
+		this.stateLoadNanos = stateLoadNanos;
+		this.playServicesCheckNanos = playServicesCheckNanos;
+		this.gcmInitNanos = gcmInitNanos;
+	}
+
+	/**
+	 * Gets the time spent constructing the client
+	 */
+	public long getConstructionNanos()
+	{
+		return constructionNanos;
+	}
+
+	/**
+	 * Gets the time spent loading the stored registration
+	 */
+	public long getStateLoadNanos()
+	{
+		return stateLoadNanos;
+	}
+
+	/**
+	 * Gets the time spent on the first check of Google Play Services availability in this process
+	 */
+	public long getPlayServicesCheckNanos()
+	{
+		return playServicesCheckNanos;
+	}
+
+	/**
+	 * Gets the time spent getting the Google Cloud Messaging instance
+	 */
+	public long getGcmInitNanos()
+	{
+		return gcmInitNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "StarFlightStartupTimings{construction=" + toMillis(constructionNanos)
+				+ ", stateLoad=" + toMillis(stateLoadNanos)
+				+ ", playServicesCheck=" + toMillis(playServicesCheckNanos)
+				+ ", gcmInit=" + toMillis(gcmInitNanos) + "}";
+	}
+
+	private static String toMillis(long nanos)
+	{
+		return nanos < 0 ? "n/a" : nanos / 1000000 + "." + (nanos / 100000) % 10 + " ms";
+	}
+}
@@ -0,0 +1,520 @@
+package com.starcut.starflight_client_android;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP transport for talking to the StarFlight push server. A single pooled, keep-alive connection manager is shared
+ * by all requests, so consecutive calls reuse the established TLS connection instead of reconnecting every time.
+ */
+class StarFlightTransport
+{
+	private static final int MAX_CONNECTIONS = 2;
+	private static final int SOCKET_BUFFER_SIZE = 8192;
+
+	/**
+	 * Maximum accepted size of a response body in bytes
+	 */
+	static final int MAX_RESPONSE_SIZE = 16 * 1024;
+
+	/**
+	 * Maximum number of characters of an error response included in error messages
+	 */
+	static final int MAX_ERROR_TEXT_LENGTH = 256;
+
+	/**
+	 * Minimum size in bytes of a request body that is compressed, smaller bodies gain too little from it
+	 */
+	static final int COMPRESSION_THRESHOLD = 512;
+
+	/**
+	 * Default connect timeout in milliseconds
+	 */
+	static final int DEFAULT_CONNECT_TIMEOUT = 1000 * 15; // 15 seconds
+
+	/**
+	 * Default read timeout in milliseconds
+	 */
+	static final int DEFAULT_READ_TIMEOUT = 1000 * 30; // 30 seconds
+
+	private static final String GZIP = "gzip";
+
+	/**
+	 * Response header with which the server announces that it stages tag lists sent in several chunks
+	 */
+	private static final String TAG_CHUNKS_HEADER = "X-StarFlight-Tag-Chunks";
+
+	/**
+	 * Response header with which the server announces that it accepts several message opens in one request
+	 */
+	private static final String OPEN_BATCHES_HEADER = "X-StarFlight-Open-Batches";
+
+	private final String serverUrl;
+	private final HttpClient httpClient;
+
+	/**
+	 * Whether the server has announced that it accepts gzip compressed request bodies
+	 */
+	private volatile boolean serverAcceptsGzip;
+
+	/**
+	 * Whether the server has announced that it stages tag lists sent in several chunks
+	 */
+	private volatile boolean serverAcceptsTagChunks;
+
+	/**
+	 * Whether the server has announced that it accepts several message opens in one request
+	 */
+	private volatile boolean serverAcceptsOpenBatches;
+
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+
+	StarFlightTransport(String serverUrl)
+	{
+		this.serverUrl = serverUrl;
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setUseExpectContinue(params, false);
+		ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+		ClientConnectionManager connectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+		httpClient = new DefaultHttpClient(connectionManager, params);
+	}
+
+	/**
+	 * <p>Posts the supplied form parameters to the push server and parses the response with the supplied parser. The
+	 * parser sees at most {@link #MAX_RESPONSE_SIZE} bytes of the body. Afterwards the rest of a small enough body is
+	 * consumed so that the connection can be reused, otherwise the connection is dropped. The request is reported to
+	 * the installed {@link StarFlightMetrics} as the supplied action.</p>
+	 *
+	 * <p>Gzip compressed responses are accepted and decoded transparently. Request bodies of at least
+	 * {@link #COMPRESSION_THRESHOLD} bytes are compressed once the server has announced with an Accept-Encoding
+	 * response header that it accepts them; if the server then rejects a compressed body as unsupported, the request
+	 * is repeated uncompressed and compression is no longer used.</p>
+	 *
+	 * <p>Cancelling the supplied cancellation aborts the request, which then fails with an
+	 * {@link InterruptedIOException}.</p>
+	 */
+	<T> T post(StarFlightMetrics.Action action, Cancellation cancellation, List<NameValuePair> parameters, ResponseParser<T> parser) throws IOException
+	{
+		try
+		{
+			UrlEncodedFormEntity form = new UrlEncodedFormEntity(parameters);
+			boolean compress = serverAcceptsGzip && form.getContentLength() >= COMPRESSION_THRESHOLD;
+
+			if (compress)
+			{
+				Exchange exchange = execute(action, cancellation, compress(form));
+
+				if (exchange.statusCode != HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE)
+				{
+					return exchange.parse(parser);
+				}
+
+				exchange.release();
+				serverAcceptsGzip = false;
+			}
+
+			return execute(action, cancellation, form).parse(parser);
+		}
+		catch (IOException e)
+		{
+			if (cancellation.isCancelled())
+			{
+				// the request was aborted, report why instead of the resulting socket error
+				InterruptedIOException cancelled = cancellation.newException();
+				cancelled.initCause(e);
+				throw cancelled;
+			}
+
+			throw e;
+		}
+		finally
+		{
+			cancellation.setListener(null);
+		}
+	}
+
+	/**
+	 * Posts the supplied form parameters to the push server. The body of the response is only read when the status
+	 * code is not a success, and then at most {@link #MAX_ERROR_TEXT_LENGTH} characters of it.
+	 */
+	Response post(StarFlightMetrics.Action action, Cancellation cancellation, List<NameValuePair> parameters) throws IOException
+	{
+		return post(action, cancellation, parameters, RESPONSE_PARSER);
+	}
+
+	/**
+	 * Tells if the server has announced with a {@value #TAG_CHUNKS_HEADER} response header that a registration can
+	 * send its tags in several chunks
+	 */
+	boolean acceptsTagChunks()
+	{
+		return serverAcceptsTagChunks;
+	}
+
+	/**
+	 * Tells if the server has announced with a {@value #OPEN_BATCHES_HEADER} response header that the opening of
+	 * several messages can be reported in one request
+	 */
+	boolean acceptsOpenBatches()
+	{
+		return serverAcceptsOpenBatches;
+	}
+
+	/**
+	 * Sets how long in milliseconds to wait for a connection to the push server to be established, and for a pooled
+	 * connection to become available
+	 */
+	void setConnectTimeout(int connectTimeout)
+	{
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Sets how long in milliseconds to wait for data from the push server once connected
+	 */
+	void setReadTimeout(int readTimeout)
+	{
+		this.readTimeout = readTimeout;
+	}
+
+	private Exchange execute(StarFlightMetrics.Action action, Cancellation cancellation, HttpEntity requestEntity) throws IOException
+	{
+		cancellation.throwIfCancelled();
+
+		final HttpPost post = new HttpPost(serverUrl);
+		post.setHeader("Accept-Encoding", GZIP);
+		post.setEntity(requestEntity);
+
+		HttpParams requestParams = post.getParams();
+		ConnManagerParams.setTimeout(requestParams, connectTimeout);
+		HttpConnectionParams.setConnectionTimeout(requestParams, connectTimeout);
+		HttpConnectionParams.setSoTimeout(requestParams, readTimeout);
+
+		cancellation.setListener(new Cancellation.Listener()
+		{
+			@Override
+			public void onCancel()
+			{
+				post.abort();
+			}
+		});
+
+		long startTime = System.nanoTime();
+		boolean executed = false;
+
+		try
+		{
+			HttpResponse response = httpClient.execute(post);
+			Header acceptEncoding = response.getFirstHeader("Accept-Encoding");
+
+			if (acceptEncoding != null && acceptEncoding.getValue().toLowerCase(Locale.US).contains(GZIP))
+			{
+				serverAcceptsGzip = true;
+			}
+
+			if (response.containsHeader(TAG_CHUNKS_HEADER))
+			{
+				serverAcceptsTagChunks = true;
+			}
+
+			if (response.containsHeader(OPEN_BATCHES_HEADER))
+			{
+				serverAcceptsOpenBatches = true;
+			}
+
+			executed = true;
+			return new Exchange(action, post, requestEntity.getContentLength(), response, startTime);
+		}
+		finally
+		{
+			if (!executed)
+			{
+				StarFlightClient.getMetrics().onRequest(action, System.nanoTime() - startTime, 0, requestEntity.getContentLength(), 0);
+				post.abort();
+			}
+		}
+	}
+
+	private static HttpEntity compress(HttpEntity form) throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) form.getContentLength() / 2);
+		GZIPOutputStream out = new GZIPOutputStream(buffer);
+		form.writeTo(out);
+		out.close();
+
+		ByteArrayEntity compressed = new ByteArrayEntity(buffer.toByteArray());
+		compressed.setContentType(form.getContentType());
+		compressed.setContentEncoding(GZIP);
+		return compressed;
+	}
+
+	/**
+	 * A request that has been sent and whose response has not been read yet
+	 */
+	private static class Exchange
+	{
+		final StarFlightMetrics.Action action;
+		final HttpPost post;
+		final long bytesSent;
+		final HttpResponse response;
+		final long startTime;
+		final int statusCode;
+
+		Exchange(StarFlightMetrics.Action action, HttpPost post, long bytesSent, HttpResponse response, long startTime)
+		{
+			this.action = action;
+			this.post = post;
+			this.bytesSent = bytesSent;
+			this.response = response;
+			this.startTime = startTime;
+			this.statusCode = response.getStatusLine().getStatusCode();
+		}
+
+		/**
+		 * Parses the response, then releases the connection
+		 */
+		<T> T parse(ResponseParser<T> parser) throws IOException
+		{
+			HttpEntity entity = response.getEntity();
+			BoundedInputStream wireBody = null;
+			boolean released = false;
+
+			try
+			{
+				InputStream body = entity == null ? null : entity.getContent();
+				wireBody = new BoundedInputStream(body, MAX_RESPONSE_SIZE);
+				BoundedInputStream decodedBody = wireBody;
+				Header contentEncoding = entity == null ? null : entity.getContentEncoding();
+
+				if (contentEncoding != null && GZIP.equalsIgnoreCase(contentEncoding.getValue().trim()))
+				{
+					decodedBody = new BoundedInputStream(new GZIPInputStream(wireBody), MAX_RESPONSE_SIZE);
+				}
+
+				T result = parser.parse(statusCode, decodedBody);
+
+				decodedBody.drain();
+				released = true;
+				return result;
+			}
+			finally
+			{
+				StarFlightClient.getMetrics().onRequest(action, System.nanoTime() - startTime, statusCode, bytesSent,
+						wireBody == null ? 0 : wireBody.getCount());
+
+				if (released)
+				{
+					if (entity != null)
+					{
+						entity.consumeContent();
+					}
+				}
+				else
+				{
+					post.abort();
+				}
+			}
+		}
+
+		/**
+		 * Releases the connection without parsing the response
+		 */
+		void release() throws IOException
+		{
+			parse(IGNORING_PARSER);
+		}
+	}
+
+	private static final ResponseParser<Void> IGNORING_PARSER = new ResponseParser<Void>()
+	{
+		@Override
+		public Void parse(int statusCode, InputStream body)
+		{
+			return null;
+		}
+	};
+
+	/**
+	 * Reads at most the supplied number of characters of a response body as UTF-8 text
+	 */
+	static String readText(InputStream body, int maxLength) throws IOException
+	{
+		Reader reader = new InputStreamReader(body, "UTF-8");
+		char[] buffer = new char[maxLength];
+		int length = 0;
+		int read;
+
+		while (length < maxLength && (read = reader.read(buffer, length, maxLength - length)) != -1)
+		{
+			length += read;
+		}
+
+		return new String(buffer, 0, length);
+	}
+
+	private static final ResponseParser<Response> RESPONSE_PARSER = new ResponseParser<Response>()
+	{
+		@Override
+		public Response parse(int statusCode, InputStream body) throws IOException
+		{
+			boolean success = statusCode >= 200 && statusCode < 300;
+			return new Response(statusCode, success ? "" : readText(body, MAX_ERROR_TEXT_LENGTH));
+		}
+	};
+
+	/**
+	 * Parses the status code and body of a push server response
+	 */
+	interface ResponseParser<T>
+	{
+		T parse(int statusCode, InputStream body) throws IOException;
+	}
+
+	/**
+	 * Status code of a push server response, and the beginning of its body for error responses
+	 */
+	static class Response
+	{
+		final int code;
+		final String body;
+
+		Response(int code, String body)
+		{
+			this.code = code;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Input stream that fails instead of reading past a size limit
+	 */
+	private static class BoundedInputStream extends FilterInputStream
+	{
+		private final long limit;
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long limit)
+		{
+			super(in == null ? new ByteArrayInputStream(new byte[0]) : in);
+			this.limit = limit;
+			this.remaining = limit;
+		}
+
+		/**
+		 * Gets the number of bytes read so far
+		 */
+		long getCount()
+		{
+			return limit - remaining;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+
+			if (b != -1)
+			{
+				count(1);
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int read = super.read(buffer, offset, length);
+
+			if (read > 0)
+			{
+				count(read);
+			}
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		/**
+		 * Reads the rest of the stream, failing if it is longer than the limit
+		 */
+		void drain() throws IOException
+		{
+			byte[] buffer = new byte[1024];
+
+			while (read(buffer, 0, buffer.length) != -1)
+			{
+				// discard
+			}
+		}
+
+		private void count(long bytes) throws IOException
+		{
+			remaining -= bytes;
+
+			if (remaining < 0)
+			{
+				throw new IOException("Response exceeds " + MAX_RESPONSE_SIZE + " bytes");
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.starcut.starflight_client_android;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Helpers shared by the StarFlight classes
+ */
+final class StarFlightUtils
+{
+	/**
+	 * The tag of all StarFlight log messages
+	 */
+	static final String LOG_TAG = "StarFlight Push Client";
+
+	private StarFlightUtils()
+	{
+	}
+
+	/**
+	 * Closes the supplied stream, ignoring failures
+	 * @param closeable the stream, or null to do nothing
+	 */
+	static void closeQuietly(Closeable closeable)
+	{
+		if (closeable != null)
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch (IOException e)
+			{
+				// ignored
+			}
+		}
+	}
+}
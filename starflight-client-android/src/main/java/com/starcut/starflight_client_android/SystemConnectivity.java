@@ -0,0 +1,129 @@
+package com.starcut.starflight_client_android;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connectivity from the active network reported by the system. Roaming networks and 2G mobile networks are poor links.
+ * A connectivity change receiver is registered only while listeners are waiting for the network.
+ */
+class SystemConnectivity implements StarFlightConnectivity
+{
+	private final List<Runnable> listeners = new ArrayList<>();
+	private Context receiverContext;
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(Context context, Intent intent)
+		{
+			if (isConnected(context) && !isPoorLink(context))
+			{
+				runListeners();
+			}
+		}
+	};
+
+	@Override
+	public boolean isConnected(Context context)
+	{
+		NetworkInfo network = getActiveNetwork(context);
+		return network != null && network.isConnected();
+	}
+
+	@Override
+	public boolean isPoorLink(Context context)
+	{
+		NetworkInfo network = getActiveNetwork(context);
+
+		if (network == null || !network.isConnected())
+		{
+			return false;
+		}
+
+		if (network.isRoaming())
+		{
+			return true;
+		}
+
+		if (network.getType() != ConnectivityManager.TYPE_MOBILE)
+		{
+			return false;
+		}
+
+		switch (network.getSubtype())
+		{
+			case TelephonyManager.NETWORK_TYPE_GPRS:
+			case TelephonyManager.NETWORK_TYPE_EDGE:
+			case TelephonyManager.NETWORK_TYPE_CDMA:
+			case TelephonyManager.NETWORK_TYPE_1xRTT:
+			case TelephonyManager.NETWORK_TYPE_IDEN:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	public void whenConnected(Context context, Runnable listener)
+	{
+		synchronized (this)
+		{
+			listeners.add(listener);
+
+			if (receiverContext == null)
+			{
+				// the connectivity broadcast is sticky, so a receiver registered while connected is called right away
+				receiverContext = context.getApplicationContext();
+				receiverContext.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+			}
+		}
+	}
+
+	@Override
+	public synchronized void cancelWhenConnected(Context context, Runnable listener)
+	{
+		if (listeners.remove(listener) && listeners.isEmpty() && receiverContext != null)
+		{
+			receiverContext.unregisterReceiver(receiver);
+			receiverContext = null;
+		}
+	}
+
+	private static NetworkInfo getActiveNetwork(Context context)
+	{
+		ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		return connectivityManager == null ? null : connectivityManager.getActiveNetworkInfo();
+	}
+
+	private void runListeners()
+	{
+		List<Runnable> connected;
+
+		synchronized (this)
+		{
+			if (receiverContext == null)
+			{
+				return;
+			}
+
+			receiverContext.unregisterReceiver(receiver);
+			receiverContext = null;
+			connected = new ArrayList<>(listeners);
+			listeners.clear();
+		}
+
+		for (Runnable listener : connected)
+		{
+			listener.run();
+		}
+	}
+}
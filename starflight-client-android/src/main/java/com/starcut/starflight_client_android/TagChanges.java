@@ -0,0 +1,63 @@
+package com.starcut.starflight_client_android;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tag additions and removals requested in quick succession, merged so that they can be sent in a single request.
+ * A tag that is added and then removed, or the other way around, only keeps its latest change.
+ */
+class TagChanges
+{
+	final Set<String> added = new TreeSet<>();
+	final Set<String> removed = new TreeSet<>();
+	final List<StarFlightCallback<RegistrationResponse>> addCallbacks = new ArrayList<>();
+	final List<StarFlightCallback<UnregistrationResponse>> removeCallbacks = new ArrayList<>();
+
+	/**
+	 * Adds the supplied tags, or none if they are null
+	 */
+	void add(Collection<String> tags, StarFlightCallback<RegistrationResponse> callback)
+	{
+		for (String tag : tags == null ? Collections.<String>emptyList() : tags)
+		{
+			// not removeAll, which can look each tag up in the supplied list
+			removed.remove(tag);
+			added.add(tag);
+		}
+
+		if (callback != null)
+		{
+			addCallbacks.add(callback);
+		}
+	}
+
+	/**
+	 * Removes the supplied tags, or none if they are null
+	 */
+	void remove(Collection<String> tags, StarFlightCallback<UnregistrationResponse> callback)
+	{
+		for (String tag : tags == null ? Collections.<String>emptyList() : tags)
+		{
+			added.remove(tag);
+			removed.add(tag);
+		}
+
+		if (callback != null)
+		{
+			removeCallbacks.add(callback);
+		}
+	}
+
+	/**
+	 * Gets the tags that result from applying these changes to the supplied tags
+	 */
+	Set<String> applyTo(Collection<String> tags)
+	{
+		return TagSet.of(tags).minus(removed).plus(added);
+	}
+}
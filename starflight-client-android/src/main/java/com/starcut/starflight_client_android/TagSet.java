@@ -0,0 +1,280 @@
+package com.starcut.starflight_client_android;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * <p>Immutable sorted set of tags, with an order-independent 64 bit hash computed once so that two tag sets can
+ * usually be told apart without comparing their tags.</p>
+ *
+ * <p>Tag sets are stored as a comma separated list in which commas and backslashes inside tags are escaped with a
+ * backslash. Earlier versions joined the tags without escaping, so a list they stored has to be read with
+ * {@link #decodeLegacy}, which splits at every comma like they did.</p>
+ */
+final class TagSet extends AbstractSet<String>
+{
+	static final TagSet EMPTY = new TagSet(new TreeSet<String>());
+
+	private static final char SEPARATOR = ',';
+	private static final char ESCAPE = '\\';
+
+	private final SortedSet<String> tags;
+	private final long hash;
+
+	private TagSet(TreeSet<String> tags)
+	{
+		this.tags = Collections.unmodifiableSortedSet(tags);
+
+		long sum = 0;
+
+		for (String tag : tags)
+		{
+			sum += hash(tag);
+		}
+
+		this.hash = sum;
+	}
+
+	/**
+	 * Gets the tag set of the supplied tags
+	 * @param tags the tags, or null for none
+	 */
+	static TagSet of(Collection<String> tags)
+	{
+		if (tags instanceof TagSet)
+		{
+			return (TagSet) tags;
+		}
+
+		if (tags == null || tags.isEmpty())
+		{
+			return EMPTY;
+		}
+
+		return new TagSet(new TreeSet<>(tags));
+	}
+
+	/**
+	 * Decodes a tag set encoded with {@link #encode}
+	 * @param encoded the encoded tags, or null for none
+	 */
+	static TagSet decode(String encoded)
+	{
+		if (encoded == null || encoded.length() == 0)
+		{
+			return EMPTY;
+		}
+
+		TreeSet<String> tags = new TreeSet<>();
+		StringBuilder tag = new StringBuilder();
+		int length = encoded.length();
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = encoded.charAt(i);
+
+			if (c == ESCAPE && i + 1 < length && (encoded.charAt(i + 1) == SEPARATOR || encoded.charAt(i + 1) == ESCAPE))
+			{
+				tag.append(encoded.charAt(++i));
+			}
+			else if (c == SEPARATOR)
+			{
+				tags.add(tag.toString());
+				tag.setLength(0);
+			}
+			else
+			{
+				tag.append(c);
+			}
+		}
+
+		tags.add(tag.toString());
+		return new TagSet(tags);
+	}
+
+	/**
+	 * Decodes a tag list stored by earlier versions, which joined the tags with commas without escaping them
+	 * @param joined the joined tags, or null for none
+	 */
+	static TagSet decodeLegacy(String joined)
+	{
+		if (joined == null || joined.length() == 0)
+		{
+			return EMPTY;
+		}
+
+		return new TagSet(new TreeSet<>(Arrays.asList(joined.split(String.valueOf(SEPARATOR)))));
+	}
+
+	/**
+	 * Encodes the tags as a comma separated list, escaping commas and backslashes inside tags
+	 */
+	String encode()
+	{
+		return encode(tags);
+	}
+
+	/**
+	 * Encodes the supplied tags like {@link #encode()}
+	 */
+	static String encode(Collection<String> tags)
+	{
+		StringBuilder encoded = new StringBuilder(tags.size() * 16);
+		boolean first = true;
+
+		for (String tag : tags)
+		{
+			if (!first)
+			{
+				encoded.append(SEPARATOR);
+			}
+
+			first = false;
+
+			for (int i = 0; i < tag.length(); i++)
+			{
+				char c = tag.charAt(i);
+
+				if (c == SEPARATOR || c == ESCAPE)
+				{
+					encoded.append(ESCAPE);
+				}
+
+				encoded.append(c);
+			}
+		}
+
+		return encoded.toString();
+	}
+
+	/**
+	 * Gets the order-independent 64 bit hash of the tags
+	 */
+	long getHash()
+	{
+		return hash;
+	}
+
+	/**
+	 * Gets the tag set with the supplied tags added
+	 */
+	TagSet plus(Collection<String> added)
+	{
+		if (added.isEmpty() || tags.containsAll(added))
+		{
+			return this;
+		}
+
+		TreeSet<String> result = new TreeSet<>(tags);
+		result.addAll(added);
+		return new TagSet(result);
+	}
+
+	/**
+	 * Gets the tag set with the supplied tags removed
+	 */
+	TagSet minus(Collection<String> removed)
+	{
+		TreeSet<String> result = new TreeSet<>(tags);
+
+		for (String tag : removed)
+		{
+			result.remove(tag);
+		}
+
+		return result.size() == tags.size() ? this : new TagSet(result);
+	}
+
+	/**
+	 * Splits the tags, in order, into lists of at most the supplied size
+	 */
+	List<List<String>> chunk(int size)
+	{
+		List<List<String>> chunks = new ArrayList<>((tags.size() + size - 1) / size);
+		List<String> chunk = new ArrayList<>(Math.min(size, tags.size()));
+
+		for (String tag : tags)
+		{
+			if (chunk.size() == size)
+			{
+				chunks.add(chunk);
+				chunk = new ArrayList<>(size);
+			}
+
+			chunk.add(tag);
+		}
+
+		if (!chunk.isEmpty())
+		{
+			chunks.add(chunk);
+		}
+
+		return chunks;
+	}
+
+	@Override
+	public boolean contains(Object o)
+	{
+		return tags.contains(o);
+	}
+
+	@Override
+	public Iterator<String> iterator()
+	{
+		return tags.iterator();
+	}
+
+	@Override
+	public int size()
+	{
+		return tags.size();
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (o instanceof TagSet)
+		{
+			TagSet other = (TagSet) o;
+			return hash == other.hash && tags.size() == other.tags.size() && tags.equals(other.tags);
+		}
+
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		// must stay the sum of the element hash codes to be equal to other sets with the same tags
+		return super.hashCode();
+	}
+
+	/**
+	 * Hashes a single tag to 64 bits: FNV-1a over its characters, then a finalizing mix so that the sum over a set
+	 * spreads well
+	 */
+	private static long hash(String tag)
+	{
+		long h = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < tag.length(); i++)
+		{
+			h ^= tag.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,168 @@
+package com.starcut.starflight_client_android;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Minimal throughput benchmark harness for code that needs the Robolectric Android environment and therefore cannot
+ * run under JMH. Each benchmark is warmed up and then measured over several fixed-length iterations. Results are
+ * written in the JSON format of JMH ({@code -rf json}) so they can be compared with the same tooling.
+ *
+ * Benchmarks return the value they compute. The runner keeps it in a volatile sink so that the JIT cannot remove
+ * the computation as dead code.
+ */
+class BenchmarkRunner {
+
+    interface Benchmark {
+        /**
+         * Runs one operation
+         * @return the computed value, or null if the operation only has side effects
+         */
+        Object run() throws Exception;
+    }
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_MILLIS = 500;
+
+    private final String suite;
+    private final List<Result> results = new ArrayList<>();
+    private volatile Object sink;
+
+    BenchmarkRunner(String suite) {
+        this.suite = suite;
+    }
+
+    void measure(String name, Map<String, String> params, Benchmark benchmark) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(benchmark);
+        }
+
+        double[] scores = new double[MEASUREMENT_ITERATIONS];
+
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            scores[i] = runIteration(benchmark);
+        }
+
+        results.add(new Result(suite + "." + name, new TreeMap<>(params), scores));
+    }
+
+    /**
+     * Runs the benchmark repeatedly for one iteration
+     * @return the throughput in operations per second
+     */
+    private double runIteration(Benchmark benchmark) throws Exception {
+        long operations = 0;
+        long start = System.nanoTime();
+        long end = start + ITERATION_MILLIS * 1000000L;
+        long now;
+
+        do {
+            sink = benchmark.run();
+            operations++;
+            now = System.nanoTime();
+        } while (now < end);
+
+        return operations / ((now - start) / 1e9);
+    }
+
+    void writeResults(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        Writer writer = new FileWriter(new File(directory, suite + ".json"));
+
+        try {
+            writer.write("[\n");
+
+            for (int i = 0; i < results.size(); i++) {
+                writer.write(results.get(i).toJson());
+                writer.write(i < results.size() - 1 ? ",\n" : "\n");
+            }
+
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static class Result {
+        final String name;
+        final Map<String, String> params;
+        final double[] scores;
+
+        Result(String name, Map<String, String> params, double[] scores) {
+            this.name = name;
+            this.params = params;
+            this.scores = scores;
+        }
+
+        double mean() {
+            double sum = 0;
+
+            for (double score : scores) {
+                sum += score;
+            }
+
+            return sum / scores.length;
+        }
+
+        /**
+         * Half-width of the 99.9% confidence interval of the mean, using the t value for the default 5 iterations
+         */
+        double error() {
+            double mean = mean();
+            double squares = 0;
+
+            for (double score : scores) {
+                squares += (score - mean) * (score - mean);
+            }
+
+            double deviation = Math.sqrt(squares / (scores.length - 1));
+            return 8.610 * deviation / Math.sqrt(scores.length);
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("  {\n");
+            json.append("    \"benchmark\" : \"").append(name).append("\",\n");
+            json.append("    \"mode\" : \"thrpt\",\n");
+            json.append("    \"warmupIterations\" : ").append(WARMUP_ITERATIONS).append(",\n");
+            json.append("    \"measurementIterations\" : ").append(MEASUREMENT_ITERATIONS).append(",\n");
+            json.append("    \"measurementTime\" : \"").append(ITERATION_MILLIS).append(" ms\",\n");
+            json.append("    \"params\" : {");
+
+            boolean first = true;
+
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                json.append(first ? "\n" : ",\n");
+                json.append("      \"").append(param.getKey()).append("\" : \"").append(param.getValue()).append("\"");
+                first = false;
+            }
+
+            json.append(first ? "},\n" : "\n    },\n");
+            json.append("    \"primaryMetric\" : {\n");
+            json.append(String.format(Locale.US, "      \"score\" : %f,\n", mean()));
+            json.append(String.format(Locale.US, "      \"scoreError\" : %f,\n", error()));
+            json.append("      \"scoreUnit\" : \"ops/s\",\n");
+            json.append("      \"rawData\" : [ [ ");
+
+            for (int i = 0; i < scores.length; i++) {
+                json.append(String.format(Locale.US, i == 0 ? "%f" : ", %f", scores[i]));
+            }
+
+            json.append(" ] ]\n");
+            json.append("    }\n");
+            json.append("  }");
+            return json.toString();
+        }
+    }
+}
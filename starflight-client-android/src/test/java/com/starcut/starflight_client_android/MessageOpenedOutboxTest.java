@@ -0,0 +1,177 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.DIRECT_EXECUTOR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MessageOpenedOutboxTest {
+
+    private Context context;
+    private StarFlightNamespace namespace;
+    private MessageOpenedOutbox outbox;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        namespace = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR);
+        outbox = new MessageOpenedOutbox(namespace);
+    }
+
+    @Test
+    public void queuedOpensSurviveRestart() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        outbox.add(context, first, null);
+        outbox.add(context, second, null);
+        outbox.add(context, first, null);
+
+        MessageOpenedOutbox restarted = new MessageOpenedOutbox(namespace);
+
+        assertEquals(2, restarted.size(context));
+        assertEquals(Arrays.asList(first, second), restarted.takeBatch(context));
+    }
+
+    @Test
+    public void batchesAreLimitedAndKeepOrder() {
+        List<UUID> opened = addOpens(MessageOpenedOutbox.MAX_BATCH_SIZE + 5);
+
+        assertEquals(opened.subList(0, MessageOpenedOutbox.MAX_BATCH_SIZE), outbox.takeBatch(context));
+        assertEquals(opened.subList(MessageOpenedOutbox.MAX_BATCH_SIZE, opened.size()), outbox.takeBatch(context));
+        assertTrue(outbox.takeBatch(context).isEmpty());
+    }
+
+    @Test
+    public void failedBatchIsResent() {
+        List<UUID> opened = addOpens(3);
+        List<UUID> batch = outbox.takeBatch(context);
+
+        outbox.complete(context, batch, true);
+
+        assertEquals(3, outbox.size(context));
+        assertEquals(opened, outbox.takeBatch(context));
+    }
+
+    @Test
+    public void failedBatchIsResentBeforeLaterOpens() {
+        List<UUID> opened = addOpens(3);
+        List<UUID> batch = outbox.takeBatch(context, 2);
+        List<UUID> later = addOpens(2);
+
+        outbox.complete(context, batch, true);
+
+        List<UUID> expected = new ArrayList<>(opened);
+        expected.addAll(later);
+        assertEquals(expected, outbox.takeBatch(context));
+    }
+
+    @Test
+    public void batchBeingSentIsResentAfterRestart() {
+        List<UUID> opened = addOpens(3);
+        outbox.takeBatch(context);
+
+        MessageOpenedOutbox restarted = new MessageOpenedOutbox(namespace);
+
+        assertEquals(opened, restarted.takeBatch(context));
+    }
+
+    @Test
+    public void deliveredBatchIsRemoved() {
+        addOpens(3);
+        outbox.complete(context, outbox.takeBatch(context), false);
+
+        assertEquals(0, outbox.size(context));
+        assertEquals(0, new MessageOpenedOutbox(namespace).size(context));
+    }
+
+    @Test
+    public void openAddedWhileBeingSentIsNotQueuedAgain() {
+        UUID messageUuid = UUID.randomUUID();
+        outbox.add(context, messageUuid, null);
+        List<UUID> batch = outbox.takeBatch(context);
+
+        outbox.add(context, messageUuid, null);
+        outbox.complete(context, batch, false);
+
+        assertEquals(0, outbox.size(context));
+    }
+
+    @Test
+    public void callbacksAreReturnedWithTheirBatch() {
+        UUID messageUuid = UUID.randomUUID();
+        StarFlightCallback<MessageOpenedResponse> first = new NoOpCallback();
+        StarFlightCallback<MessageOpenedResponse> second = new NoOpCallback();
+        outbox.add(context, messageUuid, first);
+        outbox.add(context, messageUuid, second);
+
+        List<StarFlightCallback<MessageOpenedResponse>> callbacks = outbox.complete(context, outbox.takeBatch(context), false);
+
+        assertEquals(2, callbacks.size());
+        assertSame(first, callbacks.get(0));
+        assertSame(second, callbacks.get(1));
+    }
+
+    @Test
+    public void removedOpenIsDequeuedOnceNobodyWaits() {
+        UUID messageUuid = UUID.randomUUID();
+        StarFlightCallback<MessageOpenedResponse> first = new NoOpCallback();
+        StarFlightCallback<MessageOpenedResponse> second = new NoOpCallback();
+        outbox.add(context, messageUuid, first);
+        outbox.add(context, messageUuid, second);
+
+        outbox.remove(context, messageUuid, first, true);
+        assertEquals(1, outbox.size(context));
+
+        outbox.remove(context, messageUuid, second, true);
+        assertEquals(0, outbox.size(context));
+        assertEquals(0, new MessageOpenedOutbox(namespace).size(context));
+    }
+
+    @Test
+    public void timedOutOpenStaysQueued() {
+        UUID messageUuid = UUID.randomUUID();
+        StarFlightCallback<MessageOpenedResponse> callback = new NoOpCallback();
+        outbox.add(context, messageUuid, callback);
+
+        outbox.remove(context, messageUuid, callback, false);
+
+        assertEquals(Collections.singletonList(messageUuid), outbox.takeBatch(context));
+    }
+
+    private List<UUID> addOpens(int count) {
+        List<UUID> opened = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            UUID messageUuid = UUID.randomUUID();
+            outbox.add(context, messageUuid, null);
+            opened.add(messageUuid);
+        }
+
+        return opened;
+    }
+
+    private static class NoOpCallback implements StarFlightCallback<MessageOpenedResponse> {
+        @Override
+        public void onSuccess(MessageOpenedResponse result) {
+        }
+
+        @Override
+        public void onFailure(String message, Throwable t) {
+        }
+    }
+}
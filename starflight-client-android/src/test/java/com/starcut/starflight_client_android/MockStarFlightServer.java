@@ -0,0 +1,412 @@
+package com.starcut.starflight_client_android;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the StarFlight push server. It speaks the same form protocol as the real server
+ * ({@code action=register|refresh|unregister|message_opened}), keeps registrations and their tags in memory, and can inject
+ * latency and failures so that the client stack can be exercised offline and under load.
+ */
+class MockStarFlightServer implements HttpHandler {
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final Map<UUID, String> tokensByClientUuid = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> stagedTags = new ConcurrentHashMap<>();
+    private final Set<String> openedMessages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong injectedFailures = new AtomicLong();
+    private final Set<String> connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    private volatile double failureRate;
+    private volatile int failureStatus = 503;
+    private volatile boolean gzipSupported = true;
+    private volatile boolean tagChunksSupported = true;
+    private volatile boolean openBatchesSupported = true;
+    private volatile int refreshStatus;
+    private volatile String refreshBody;
+    private volatile int registerStatus;
+    private volatile String registerBody;
+
+    MockStarFlightServer() throws IOException {
+        this(DEFAULT_THREADS);
+    }
+
+    MockStarFlightServer(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/push", this);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/push";
+    }
+
+    /**
+     * Delays every response by a random time between the supplied bounds
+     */
+    void setLatency(long minMillis, long maxMillis) {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+    }
+
+    /**
+     * Fails the supplied fraction of requests with the supplied status code
+     */
+    void setFailureRate(double failureRate, int status) {
+        this.failureRate = failureRate;
+        this.failureStatus = status;
+    }
+
+    /**
+     * Sets whether gzip compressed request bodies are accepted and announced, and responses compressed. A server
+     * without support rejects compressed requests with 415 Unsupported Media Type.
+     */
+    void setGzipSupported(boolean gzipSupported) {
+        this.gzipSupported = gzipSupported;
+    }
+
+    /**
+     * Sets whether tag lists sent in several chunks are staged and announced. A server without support ignores the
+     * chunk parameters, so every chunk replaces the tags of the registration.
+     */
+    void setTagChunksSupported(boolean tagChunksSupported) {
+        this.tagChunksSupported = tagChunksSupported;
+    }
+
+    /**
+     * Sets whether message opens reported several at a time with the {@code uuids} parameter are accepted and
+     * announced. A server without support rejects them as a bad request.
+     */
+    void setOpenBatchesSupported(boolean openBatchesSupported) {
+        this.openBatchesSupported = openBatchesSupported;
+    }
+
+    /**
+     * Answers every conditional refresh with the supplied status and body instead of comparing fingerprints, to
+     * stand in for servers that refresh differently or do not support conditional refreshes
+     * @param status the status code, or 0 to compare fingerprints again
+     */
+    void setRefreshResponse(int status, String body) {
+        this.refreshBody = body;
+        this.refreshStatus = status;
+    }
+
+    /**
+     * Answers every registration with the supplied status and body instead of registering, to stand in for servers
+     * that answer unexpectedly
+     * @param status the status code, or 0 to register again
+     */
+    void setRegisterResponse(int status, String body) {
+        this.registerBody = body;
+        this.registerStatus = status;
+    }
+
+    /**
+     * Gets the tags registered with the supplied token, or null if it is not registered
+     */
+    Set<String> getTags(String token) {
+        Registration registration = registrations.get(token);
+        return registration == null ? null : registration.getTags();
+    }
+
+    /**
+     * Gets the UUIDs of the messages whose opening has been reported
+     */
+    Set<String> getOpenedMessages() {
+        return new TreeSet<>(openedMessages);
+    }
+
+    long getRequestCount(String action) {
+        AtomicLong count = requestCounts.get(action);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Gets the number of distinct connections that requests have been received on
+     */
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    long getInjectedFailures() {
+        return injectedFailures.get();
+    }
+
+    int getRegistrationCount() {
+        return registrations.size();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress().toString());
+        InputStream requestBody = exchange.getRequestBody();
+
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            if (!gzipSupported) {
+                count("unsupported");
+                respond(exchange, 415, "Compressed requests are not supported");
+                return;
+            }
+
+            count("gzip");
+            requestBody = new GZIPInputStream(requestBody);
+        }
+
+        Map<String, String> form = parseForm(requestBody);
+        String action = form.get("action");
+        String token = form.get("token");
+        count(String.valueOf(action));
+        delay();
+
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            injectedFailures.incrementAndGet();
+            respond(exchange, failureStatus, "Injected failure");
+        } else if (form.get("appId") == null || form.get("clientSecret") == null || !"android".equals(form.get("type"))) {
+            respond(exchange, 400, "Missing app credentials");
+        } else if ("register".equals(action) && token != null) {
+            register(exchange, token, form.get("tags"), form.get("chunk"), form.get("chunks"));
+        } else if ("refresh".equals(action) && form.get("clientUuid") != null && form.get("fingerprint") != null) {
+            refresh(exchange, form.get("appId"), UUID.fromString(form.get("clientUuid")), form.get("fingerprint"));
+        } else if ("unregister".equals(action) && token != null) {
+            unregister(exchange, token, form.get("tags"));
+        } else if ("message_opened".equals(action) && form.containsKey("uuid")) {
+            openedMessages.add(form.get("uuid"));
+            respond(exchange, 200, "");
+        } else if ("message_opened".equals(action) && form.containsKey("uuids") && openBatchesSupported) {
+            openedMessages.addAll(split(form.get("uuids")));
+            respond(exchange, 200, "");
+        } else {
+            respond(exchange, 400, "Invalid request for action " + action);
+        }
+    }
+
+    /**
+     * Registers the supplied tags. Tags sent in several chunks are staged until the last chunk, which replaces the
+     * tags of the registration with all of them.
+     */
+    private void register(HttpExchange exchange, String token, String tags, String chunk, String chunks) throws IOException {
+        if (registerStatus != 0) {
+            respond(exchange, registerStatus, registerBody);
+            return;
+        }
+
+        Set<String> registeredTags = split(tags);
+
+        if (tagChunksSupported && chunk != null && chunks != null) {
+            Set<String> staged = stagedTags.get(token);
+
+            if (staged == null || "1".equals(chunk)) {
+                staged = new TreeSet<>();
+                stagedTags.put(token, staged);
+            }
+
+            staged.addAll(registeredTags);
+
+            if (!chunk.equals(chunks)) {
+                respond(exchange, 202, "");
+                return;
+            }
+
+            registeredTags = stagedTags.remove(token);
+        }
+
+        Registration registration = registrations.get(token);
+        int code = 200;
+
+        if (registration == null) {
+            registration = new Registration(UUID.randomUUID());
+            registrations.put(token, registration);
+            tokensByClientUuid.put(registration.clientUuid, token);
+            code = 201;
+        }
+
+        registration.setTags(registeredTags);
+        respond(exchange, code, "{\"clientUuid\":\"" + registration.clientUuid + "\"}");
+    }
+
+    /**
+     * Answers 304 with an empty body if the fingerprint matches the stored registration, and 412 otherwise so that
+     * the client sends the registration in full
+     */
+    private void refresh(HttpExchange exchange, String appId, UUID clientUuid, String fingerprint) throws IOException {
+        if (refreshStatus != 0) {
+            respond(exchange, refreshStatus, refreshBody);
+            return;
+        }
+
+        String token = tokensByClientUuid.get(clientUuid);
+        Registration registration = token == null ? null : registrations.get(token);
+
+        if (registration != null
+                && StarFlightClient.getRegistrationFingerprint(appId, token, registration.getTags()).equals(fingerprint)) {
+            respond(exchange, 304, "");
+        } else {
+            respond(exchange, 412, "Registration changed");
+        }
+    }
+
+    private void unregister(HttpExchange exchange, String token, String tags) throws IOException {
+        if (tags == null) {
+            Registration registration = registrations.remove(token);
+
+            if (registration != null) {
+                tokensByClientUuid.remove(registration.clientUuid);
+            }
+        } else {
+            Registration registration = registrations.get(token);
+
+            if (registration != null) {
+                registration.removeTags(split(tags));
+            }
+        }
+
+        respond(exchange, 200, "");
+    }
+
+    private void count(String action) {
+        AtomicLong count = requestCounts.get(action);
+
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent(action, created);
+            count = count == null ? created : count;
+        }
+
+        count.incrementAndGet();
+    }
+
+    private void delay() {
+        long min = minLatencyMillis;
+        long max = maxLatencyMillis;
+
+        if (max > 0) {
+            try {
+                Thread.sleep(min + (max > min ? ThreadLocalRandom.current().nextLong(max - min) : 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Set<String> split(String tags) {
+        if (tags == null || tags.length() == 0) {
+            return Collections.emptySet();
+        }
+
+        return new TreeSet<>(Arrays.asList(tags.split(",")));
+    }
+
+    private void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+        if (tagChunksSupported) {
+            exchange.getResponseHeaders().set("X-StarFlight-Tag-Chunks", "true");
+        }
+
+        if (openBatchesSupported) {
+            exchange.getResponseHeaders().set("X-StarFlight-Open-Batches", "true");
+        }
+
+        if (gzipSupported) {
+            exchange.getResponseHeaders().set("Accept-Encoding", "gzip");
+
+            if (bytes.length > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream out = new GZIPOutputStream(compressed);
+                out.write(bytes);
+                out.close();
+                bytes = compressed.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+        }
+
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static Map<String, String> parseForm(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int read;
+
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+
+        Map<String, String> form = new HashMap<>();
+        String body = buffer.toString("ISO-8859-1");
+
+        if (body.length() > 0) {
+            for (String pair : body.split("&")) {
+                int separator = pair.indexOf('=');
+                String name = separator < 0 ? pair : pair.substring(0, separator);
+                String value = separator < 0 ? "" : pair.substring(separator + 1);
+                form.put(URLDecoder.decode(name, "ISO-8859-1"), URLDecoder.decode(value, "ISO-8859-1"));
+            }
+        }
+
+        return form;
+    }
+
+    private static class Registration {
+        final UUID clientUuid;
+        private Set<String> tags = new TreeSet<>();
+
+        Registration(UUID clientUuid) {
+            this.clientUuid = clientUuid;
+        }
+
+        synchronized Set<String> getTags() {
+            return new TreeSet<>(tags);
+        }
+
+        synchronized void setTags(Set<String> tags) {
+            this.tags = new TreeSet<>(tags);
+        }
+
+        synchronized void removeTags(Set<String> removed) {
+            tags.removeAll(removed);
+        }
+    }
+}
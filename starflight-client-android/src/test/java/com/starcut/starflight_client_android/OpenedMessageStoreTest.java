@@ -0,0 +1,156 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class OpenedMessageStoreTest {
+
+    private Context context;
+    private File file;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        file = new File(context.getFilesDir(), "starflight_opened_messages");
+        file.delete();
+    }
+
+    @Test
+    public void openedMessagesSurviveRestart() {
+        UUID messageUuid = UUID.randomUUID();
+        new OpenedMessageStore().add(context, messageUuid);
+
+        OpenedMessageStore restarted = new OpenedMessageStore();
+
+        assertTrue(restarted.contains(context, messageUuid));
+        assertFalse(restarted.contains(context, UUID.randomUUID()));
+    }
+
+    @Test
+    public void oldestMessagesAreEvicted() {
+        OpenedMessageStore store = new OpenedMessageStore();
+        List<UUID> opened = addMessages(store, OpenedMessageStore.CAPACITY + 1);
+
+        assertFalse(store.contains(context, opened.get(0)));
+        assertTrue(store.contains(context, opened.get(1)));
+        assertTrue(store.contains(context, opened.get(OpenedMessageStore.CAPACITY)));
+
+        OpenedMessageStore restarted = new OpenedMessageStore();
+        assertFalse(restarted.contains(context, opened.get(0)));
+        assertTrue(restarted.contains(context, opened.get(1)));
+    }
+
+    @Test
+    public void logIsCompactedOnceTwiceTheCapacity() throws IOException {
+        OpenedMessageStore store = new OpenedMessageStore();
+        List<UUID> opened = addMessages(store, OpenedMessageStore.CAPACITY * 2);
+        assertEquals(OpenedMessageStore.CAPACITY * 2, readLines().size());
+
+        UUID last = UUID.randomUUID();
+        store.add(context, last);
+        opened.add(last);
+
+        assertEquals(opened.subList(opened.size() - OpenedMessageStore.CAPACITY, opened.size()), toUuids(readLines()));
+    }
+
+    @Test
+    public void damagedLogIsCompactedOnLoad() throws IOException {
+        UUID messageUuid = UUID.randomUUID();
+        writeLines(messageUuid.toString(), messageUuid.toString(), "0f2a");
+
+        OpenedMessageStore store = new OpenedMessageStore();
+
+        assertTrue(store.contains(context, messageUuid));
+        assertEquals(1, readLines().size());
+    }
+
+    @Test
+    public void legacyPreferencesAreMigrated() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        SharedPreferences prefs = context.getSharedPreferences(StarFlightClient.class.getSimpleName(), Context.MODE_PRIVATE);
+        prefs.edit().putString(StarFlightClient.PROPERTY_OPENED_MESSAGES, first + "," + second).commit();
+
+        OpenedMessageStore store = new OpenedMessageStore();
+
+        assertTrue(store.contains(context, first));
+        assertTrue(store.contains(context, second));
+        assertNull(prefs.getString(StarFlightClient.PROPERTY_OPENED_MESSAGES, null));
+        assertEquals(2, readLines().size());
+        assertTrue(new OpenedMessageStore().contains(context, second));
+    }
+
+    private List<UUID> addMessages(OpenedMessageStore store, int count) {
+        List<UUID> opened = new ArrayList<>(count + 1);
+
+        for (int i = 0; i < count; i++) {
+            UUID messageUuid = UUID.randomUUID();
+            store.add(context, messageUuid);
+            opened.add(messageUuid);
+        }
+
+        return opened;
+    }
+
+    private List<String> readLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    private void writeLines(String... lines) throws IOException {
+        Writer writer = new FileWriter(file);
+
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static List<UUID> toUuids(List<String> lines) {
+        List<UUID> uuids = new ArrayList<>(lines.size());
+
+        for (String line : lines) {
+            uuids.add(UUID.fromString(line));
+        }
+
+        return uuids;
+    }
+}
@@ -0,0 +1,105 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RecentMessageFilterTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void rejectsRecentMessages() {
+        RecentMessageFilter filter = new RecentMessageFilter(3);
+        UUID messageUuid = UUID.randomUUID();
+
+        assertTrue(filter.add(context, messageUuid));
+        assertFalse(filter.add(context, messageUuid));
+    }
+
+    @Test
+    public void forgetsOldestMessageOnceFull() {
+        RecentMessageFilter filter = new RecentMessageFilter(3);
+        UUID[] messageUuids = createUuids(4);
+
+        for (UUID messageUuid : messageUuids) {
+            assertTrue(filter.add(context, messageUuid));
+        }
+
+        assertFalse(filter.add(context, messageUuids[3]));
+        assertFalse(filter.add(context, messageUuids[1]));
+        assertTrue(filter.add(context, messageUuids[0]));
+    }
+
+    @Test
+    public void reloadsHistoryFromFile() {
+        RecentMessageFilter filter = new RecentMessageFilter(3);
+        UUID[] messageUuids = createUuids(5);
+
+        for (UUID messageUuid : messageUuids) {
+            filter.add(context, messageUuid);
+        }
+
+        RecentMessageFilter reloaded = new RecentMessageFilter(3);
+
+        assertFalse(reloaded.add(context, messageUuids[4]));
+        assertFalse(reloaded.add(context, messageUuids[3]));
+        assertFalse(reloaded.add(context, messageUuids[2]));
+        assertTrue(reloaded.add(context, messageUuids[1]));
+    }
+
+    @Test
+    public void continuesRingAfterReload() {
+        UUID[] messageUuids = createUuids(4);
+        RecentMessageFilter filter = new RecentMessageFilter(3);
+        filter.add(context, messageUuids[0]);
+        filter.add(context, messageUuids[1]);
+
+        RecentMessageFilter reloaded = new RecentMessageFilter(3);
+        reloaded.add(context, messageUuids[2]);
+        reloaded.add(context, messageUuids[3]);
+
+        RecentMessageFilter again = new RecentMessageFilter(3);
+
+        assertFalse(again.add(context, messageUuids[1]));
+        assertFalse(again.add(context, messageUuids[3]));
+        assertTrue(again.add(context, messageUuids[0]));
+    }
+
+    @Test
+    public void windowsKeepSeparateHistories() {
+        UUID messageUuid = UUID.randomUUID();
+
+        assertSame(RecentMessageFilter.get(7), RecentMessageFilter.get(7));
+        assertTrue(RecentMessageFilter.get(7).add(context, messageUuid));
+        assertTrue(RecentMessageFilter.get(11).add(context, messageUuid));
+        assertFalse(RecentMessageFilter.get(7).add(context, messageUuid));
+        assertFalse(RecentMessageFilter.get(11).add(context, messageUuid));
+    }
+
+    private static UUID[] createUuids(int count) {
+        UUID[] uuids = new UUID[count];
+
+        for (int i = 0; i < count; i++) {
+            uuids[i] = UUID.randomUUID();
+        }
+
+        return uuids;
+    }
+}
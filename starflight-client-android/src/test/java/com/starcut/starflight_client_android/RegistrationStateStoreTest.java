@@ -0,0 +1,165 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.DIRECT_EXECUTOR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RegistrationStateStoreTest {
+
+    private Context context;
+    private StarFlightNamespace namespace;
+    private QueueExecutor executor;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        namespace = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR);
+        executor = new QueueExecutor();
+    }
+
+    @Test
+    public void mainThreadReadsStateWithoutWaitingForExecutor() {
+        getPreferences().edit().putString("registration_id_1", "token").commit();
+        RegistrationStateStore store = new RegistrationStateStore(namespace, executor);
+
+        store.preload(context);
+
+        // the load queued on the busy executor has not run, the main thread read the state itself
+        assertEquals(1, executor.tasks.size());
+        assertEquals("token", store.get(context).registrationId);
+        assertTrue(store.getLoadNanos() >= 0);
+    }
+
+    @Test
+    public void updatesAreVisibleBeforeTheyAreWritten() {
+        RegistrationStateStore store = loadedStore();
+
+        store.update(context, register("first"));
+
+        assertEquals("first", store.get(context).registrationId);
+        assertNull(load().registrationId);
+    }
+
+    @Test
+    public void writesRunOneAtATimeWithLatestState() {
+        RegistrationStateStore store = loadedStore();
+
+        store.update(context, register("first"));
+        store.update(context, register("second"));
+        assertEquals(1, executor.tasks.size());
+
+        executor.runNext();
+        assertEquals("second", load().registrationId);
+
+        store.update(context, register("third"));
+        executor.runAll();
+
+        assertEquals(1, executor.maxPending);
+        assertEquals("third", load().registrationId);
+    }
+
+    @Test
+    public void clearedStateIsWritten() {
+        RegistrationStateStore store = new RegistrationStateStore(namespace, DIRECT_EXECUTOR);
+        store.update(context, register("token"));
+
+        store.update(context, new RegistrationStateStore.Mutation() {
+            @Override
+            public RegistrationState apply(RegistrationState state) {
+                return RegistrationState.EMPTY;
+            }
+        });
+
+        assertNull(load().registrationId);
+        assertTrue(load().tags.isEmpty());
+    }
+
+    @Test
+    public void tagsStoredByEarlierVersionsAreRead() {
+        getPreferences().edit()
+                .putString("registration_id_1", "token")
+                .putString("registered_tags_1", "news,sports")
+                .commit();
+
+        assertEquals(new HashSet<>(Arrays.asList("news", "sports")), load().tags);
+    }
+
+    @Test
+    public void tagsAreWrittenEscaped() {
+        RegistrationStateStore store = new RegistrationStateStore(namespace, DIRECT_EXECUTOR);
+
+        store.update(context, register("token", "a,b", "c"));
+
+        assertEquals(new HashSet<>(Arrays.asList("a,b", "c")), load().tags);
+    }
+
+    /**
+     * Creates a store on the queue executor whose state has already been loaded
+     */
+    private RegistrationStateStore loadedStore() {
+        RegistrationStateStore store = new RegistrationStateStore(namespace, executor);
+        store.get(context);
+        executor.runAll();
+        executor.maxPending = 0;
+        return store;
+    }
+
+    private RegistrationState load() {
+        return new RegistrationStateStore(namespace, DIRECT_EXECUTOR).get(context);
+    }
+
+    private SharedPreferences getPreferences() {
+        return namespace.getPreferences(context, StarFlightClient.class.getSimpleName());
+    }
+
+    private static RegistrationStateStore.Mutation register(final String registrationId, final String... tags) {
+        return new RegistrationStateStore.Mutation() {
+            @Override
+            public RegistrationState apply(RegistrationState state) {
+                return state.withRegistration(registrationId, Arrays.asList(tags), UUID.randomUUID(), System.currentTimeMillis());
+            }
+        };
+    }
+
+    /**
+     * Executor that only runs its tasks when asked to, and remembers how many were waiting at most
+     */
+    private static class QueueExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        int maxPending;
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+            maxPending = Math.max(maxPending, tasks.size());
+        }
+
+        void runNext() {
+            tasks.remove().run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
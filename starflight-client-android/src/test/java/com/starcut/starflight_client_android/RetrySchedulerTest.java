@@ -0,0 +1,132 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.DIRECT_EXECUTOR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RetrySchedulerTest {
+
+    private static final long SECOND = 1000;
+    private static final long HOUR = 60 * 60 * SECOND;
+
+    private Context context;
+    private StarFlightNamespace namespace;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        namespace = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR);
+        listener = new RecordingListener();
+    }
+
+    @Test
+    public void backoffDelayDoublesWithinJitterBounds() {
+        for (int attempt = 1; attempt < 100; attempt++) {
+            long max = Math.min(6 * HOUR, (30 * SECOND) << Math.min(attempt - 1, 20));
+
+            for (int i = 0; i < 100; i++) {
+                long delay = RetryScheduler.getBackoffDelay(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= max / 2 && delay <= max);
+            }
+        }
+    }
+
+    @Test
+    public void temporaryFailuresAreRetryable() {
+        assertTrue(RetryScheduler.isRetryable(new StarFlightHttpException(500, "Internal Server Error")));
+        assertTrue(RetryScheduler.isRetryable(new StarFlightHttpException(503, "Service Unavailable")));
+        assertTrue(RetryScheduler.isRetryable(new StarFlightHttpException(408, "Request Timeout")));
+        assertTrue(RetryScheduler.isRetryable(new StarFlightHttpException(429, "Too Many Requests")));
+        assertTrue(RetryScheduler.isRetryable(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetryable() {
+        assertFalse(RetryScheduler.isRetryable(new StarFlightHttpException(400, "Bad Request")));
+        assertFalse(RetryScheduler.isRetryable(new StarFlightHttpException(401, "Unauthorized")));
+        assertFalse(RetryScheduler.isRetryable(new StarFlightHttpException(404, "Not Found")));
+        assertFalse(RetryScheduler.isRetryable(new JSONException("Unexpected response")));
+    }
+
+    @Test
+    public void scheduledRetryRunsWithTags() {
+        RetryScheduler retries = new RetryScheduler(namespace, listener);
+
+        retries.schedule(context, RetryScheduler.Kind.UNREGISTER, Arrays.asList("a", "b"));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(Arrays.asList(RetryScheduler.Kind.UNREGISTER), listener.kinds);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(listener.tags.get(0)));
+    }
+
+    @Test
+    public void clearedRetryDoesNotRun() {
+        RetryScheduler retries = new RetryScheduler(namespace, listener);
+
+        retries.schedule(context, RetryScheduler.Kind.REGISTER, Arrays.asList("a"));
+        retries.clear(context, RetryScheduler.Kind.REGISTER);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertTrue(listener.kinds.isEmpty());
+    }
+
+    @Test
+    public void retriesAreGivenUpAfterMaxAttempts() {
+        RetryScheduler retries = new RetryScheduler(namespace, listener);
+
+        for (int i = 0; i < RetryScheduler.MAX_ATTEMPTS; i++) {
+            retries.schedule(context, RetryScheduler.Kind.REGISTER, Arrays.asList("a"));
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+
+        assertEquals(RetryScheduler.MAX_ATTEMPTS - 1, listener.kinds.size());
+
+        // giving up resets the attempt count
+        retries.schedule(context, RetryScheduler.Kind.REGISTER, Arrays.asList("a"));
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        assertEquals(RetryScheduler.MAX_ATTEMPTS, listener.kinds.size());
+    }
+
+    @Test
+    public void pendingRetryIsResumedAfterRestart() {
+        new RetryScheduler(namespace, new RecordingListener()).schedule(context, RetryScheduler.Kind.REGISTER, Arrays.asList("a,b", "c"));
+        RetryScheduler restarted = new RetryScheduler(namespace, listener);
+
+        restarted.resume(context);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(Arrays.asList(RetryScheduler.Kind.REGISTER), listener.kinds);
+        assertEquals(new HashSet<>(Arrays.asList("a,b", "c")), new HashSet<>(listener.tags.get(0)));
+    }
+
+    private static class RecordingListener implements RetryScheduler.Listener {
+        final List<RetryScheduler.Kind> kinds = new ArrayList<>();
+        final List<List<String>> tags = new ArrayList<>();
+
+        @Override
+        public void retry(Context context, RetryScheduler.Kind kind, List<String> tags) {
+            kinds.add(kind);
+            this.tags.add(tags);
+        }
+    }
+}
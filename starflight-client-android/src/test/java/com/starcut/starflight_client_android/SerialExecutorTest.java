@@ -0,0 +1,110 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SerialExecutorTest {
+
+    @Test
+    public void runsTasksInSubmissionOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        StarFlightExecutors.SerialExecutor executor = new StarFlightExecutors.SerialExecutor(pool);
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            final int index = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (long) order.get(i));
+        }
+
+        pool.shutdown();
+    }
+
+    @Test
+    public void rejectedTaskIsRetriedLater() throws Exception {
+        StarFlightExecutors.SerialExecutor executor = new StarFlightExecutors.SerialExecutor(newExecutorRejecting(1));
+        final CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectedTaskIsRetriedWithoutStallingLaterTasks() throws Exception {
+        StarFlightExecutors.SerialExecutor executor = new StarFlightExecutors.SerialExecutor(newExecutorRejecting(1));
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(2);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("first");
+                done.countDown();
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.add("second");
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, ran.size());
+        assertEquals("first", ran.get(0));
+        assertEquals("second", ran.get(1));
+    }
+
+    /**
+     * Creates an executor that rejects the supplied number of tasks, then runs each task on a new thread
+     */
+    private static Executor newExecutorRejecting(int count) {
+        final AtomicInteger rejections = new AtomicInteger(count);
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejections.getAndDecrement() > 0) {
+                    throw new RejectedExecutionException("full");
+                }
+
+                new Thread(command).start();
+            }
+        };
+    }
+}
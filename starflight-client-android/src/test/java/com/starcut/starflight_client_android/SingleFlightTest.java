@@ -0,0 +1,249 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private final Executor queueExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+    };
+
+    private SingleFlight<Result> singleFlight;
+
+    @Before
+    public void setUp() {
+        singleFlight = new SingleFlight<>(queueExecutor);
+    }
+
+    @Test
+    public void waitingCallsWithSameKeyAreCoalesced() {
+        RecordingOperation operation = new RecordingOperation();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        singleFlight.execute("a", operation, first);
+        singleFlight.execute("a", new RecordingOperation(), second);
+        runQueue();
+        operation.succeed(new Result());
+
+        assertEquals(1, operation.runs);
+        assertSame(first.result, second.result);
+        assertEquals(1, first.successes);
+        assertEquals(1, second.successes);
+    }
+
+    @Test
+    public void callWithSameKeyJoinsRunningOperation() {
+        final RecordingOperation operation = new RecordingOperation();
+        final RecordingOperation other = new RecordingOperation();
+        RecordingCallback first = new RecordingCallback();
+        final RecordingCallback second = new RecordingCallback();
+
+        operation.during = new Runnable() {
+            @Override
+            public void run() {
+                singleFlight.execute("a", other, second);
+                operation.fail("failed");
+            }
+        };
+        singleFlight.execute("a", operation, first);
+        runQueue();
+
+        assertEquals(1, operation.runs);
+        assertEquals(0, other.runs);
+        assertEquals("failed", first.failure);
+        assertEquals("failed", second.failure);
+    }
+
+    @Test
+    public void callAfterCompletionRunsAgain() {
+        RecordingOperation operation = new RecordingOperation();
+        RecordingCallback callback = new RecordingCallback();
+
+        singleFlight.execute("a", operation, callback);
+        runQueue();
+        operation.succeed(new Result());
+        singleFlight.execute("a", operation, callback);
+        runQueue();
+        operation.succeed(new Result());
+
+        assertEquals(2, operation.runs);
+        assertEquals(2, callback.successes);
+    }
+
+    @Test
+    public void callWithOtherKeySupersedesWaitingOperation() {
+        RecordingOperation superseded = new RecordingOperation();
+        RecordingOperation newer = new RecordingOperation();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        singleFlight.execute("a", superseded, first);
+        singleFlight.execute("b", newer, second);
+        runQueue();
+        Result result = new Result();
+        newer.succeed(result);
+
+        assertEquals(0, superseded.runs);
+        assertEquals(1, newer.runs);
+        assertSame(result, first.result);
+        assertSame(result, second.result);
+    }
+
+    @Test
+    public void callWithOtherKeyDoesNotSupersedeRunningOperation() {
+        final RecordingOperation running = new RecordingOperation();
+        final RecordingOperation newer = new RecordingOperation();
+        RecordingCallback first = new RecordingCallback();
+        final RecordingCallback second = new RecordingCallback();
+
+        running.during = new Runnable() {
+            @Override
+            public void run() {
+                singleFlight.execute("b", newer, second);
+                running.succeed(new Result());
+            }
+        };
+        singleFlight.execute("a", running, first);
+        runQueue();
+        newer.succeed(new Result());
+
+        assertEquals(1, running.runs);
+        assertEquals(1, newer.runs);
+        assertFalse(running.cancellation.isCancelled());
+        assertEquals(1, first.successes);
+        assertEquals(1, second.successes);
+        assertTrue(first.result != second.result);
+    }
+
+    @Test
+    public void abandonedWaitingOperationIsSkipped() {
+        RecordingOperation operation = new RecordingOperation();
+        StarFlightOperation<Result> handle = new StarFlightOperation<>();
+
+        singleFlight.execute("a", operation, handle);
+        handle.cancel();
+        runQueue();
+
+        assertEquals(0, operation.runs);
+        assertTrue(handle.isCancelled());
+    }
+
+    @Test
+    public void abandonedRunningOperationIsCancelled() {
+        final RecordingOperation operation = new RecordingOperation();
+        final StarFlightOperation<Result> first = new StarFlightOperation<>();
+        final StarFlightOperation<Result> second = new StarFlightOperation<>();
+        final boolean[] cancelled = new boolean[2];
+
+        operation.during = new Runnable() {
+            @Override
+            public void run() {
+                first.cancel();
+                cancelled[0] = operation.cancellation.isCancelled();
+                second.cancel();
+                cancelled[1] = operation.cancellation.isCancelled();
+            }
+        };
+        singleFlight.execute("a", operation, first);
+        singleFlight.execute("a", operation, second);
+        runQueue();
+
+        assertFalse(cancelled[0]);
+        assertTrue(cancelled[1]);
+        assertFalse(operation.cancellation.isTimedOut());
+    }
+
+    @Test
+    public void callerWithoutHandleKeepsOperationRunning() {
+        final RecordingOperation operation = new RecordingOperation();
+        final StarFlightOperation<Result> handle = new StarFlightOperation<>();
+        RecordingCallback callback = new RecordingCallback();
+
+        operation.during = new Runnable() {
+            @Override
+            public void run() {
+                handle.cancel();
+                operation.succeed(new Result());
+            }
+        };
+        singleFlight.execute("a", operation, handle);
+        singleFlight.execute("a", operation, callback);
+        runQueue();
+
+        assertFalse(operation.cancellation.isCancelled());
+        assertEquals(1, callback.successes);
+    }
+
+    private void runQueue() {
+        Runnable task;
+
+        while ((task = queue.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static class Result implements StarFlightResponse {
+    }
+
+    /**
+     * Operation that records its calls. Like the client operations it is only running while {@link #run} executes, so
+     * work that has to happen while it runs goes into {@link #during}.
+     */
+    private static class RecordingOperation implements SingleFlight.Operation<Result> {
+        Runnable during;
+        int runs;
+        StarFlightCallback<Result> callback;
+        Cancellation cancellation;
+
+        @Override
+        public void run(StarFlightCallback<Result> callback, Cancellation cancellation) {
+            runs++;
+            this.callback = callback;
+            this.cancellation = cancellation;
+
+            if (during != null) {
+                during.run();
+            }
+        }
+
+        void succeed(Result result) {
+            callback.onSuccess(result);
+        }
+
+        void fail(String message) {
+            callback.onFailure(message, null);
+        }
+    }
+
+    private static class RecordingCallback implements StarFlightCallback<Result> {
+        int successes;
+        Result result;
+        String failure;
+
+        @Override
+        public void onSuccess(Result result) {
+            successes++;
+            this.result = result;
+        }
+
+        @Override
+        public void onFailure(String message, Throwable t) {
+            failure = message;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createTags;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks of the StarFlight client hot paths. They only run when the build is invoked with
+ * {@code -Pbenchmarks}, for example:
+ *
+ * <pre>./gradlew :starflight-client-android:testDebugUnitTest -Pbenchmarks --tests '*StarFlightBenchmarks'</pre>
+ *
+ * Results are written as JMH compatible JSON to {@code build/reports/benchmarks}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightBenchmarks {
+
+    private static final int[] TAG_COUNTS = {10, 100, 1000};
+    private static final int[] HISTORY_SIZES = {100, OpenedMessageStore.CAPACITY};
+    private static final int[] EXTRA_COUNTS = {5, 50};
+
+    private Context context;
+    private BenchmarkRunner runner;
+    private MockStarFlightServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("starflight.benchmarks"));
+        context = RuntimeEnvironment.application;
+        runner = new BenchmarkRunner(StarFlightBenchmarks.class.getSimpleName());
+        server = new MockStarFlightServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+
+        if (runner != null) {
+            runner.writeResults(new File(System.getProperty("starflight.benchmarks.output", "build/reports/benchmarks")));
+        }
+    }
+
+    @Test
+    public void benchmarkAll() throws Exception {
+        benchmarkJoin();
+        benchmarkTagEncoding();
+        benchmarkOpenedMessages();
+        benchmarkTagComparison();
+        benchmarkReceiverOptions();
+        benchmarkRegisterFlow();
+        benchmarkMessageOpenedFlow();
+    }
+
+    /**
+     * The wire encoding of the tags and the message UUIDs sent to the push server
+     */
+    private void benchmarkJoin() throws Exception {
+        for (int count : TAG_COUNTS) {
+            final List<String> tags = createTags(count);
+
+            runner.measure("join", params("tags", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return StarFlightClient.join(tags, ",");
+                }
+            });
+        }
+
+        final List<UUID> messageUuids = new ArrayList<>();
+
+        for (int i = 0; i < MessageOpenedOutbox.MAX_BATCH_SIZE; i++) {
+            messageUuids.add(UUID.randomUUID());
+        }
+
+        runner.measure("join", params("uuids", messageUuids.size()), new BenchmarkRunner.Benchmark() {
+            @Override
+            public Object run() {
+                return StarFlightClient.join(messageUuids, ",");
+            }
+        });
+    }
+
+    private void benchmarkTagEncoding() throws Exception {
+        for (int count : TAG_COUNTS) {
+            final TagSet tags = TagSet.of(createTags(count));
+            final String encoded = tags.encode();
+
+            runner.measure("encodeTags", params("tags", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return tags.encode();
+                }
+            });
+
+            runner.measure("decodeTags", params("tags", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return TagSet.decode(encoded);
+                }
+            });
+        }
+    }
+
+    private void benchmarkOpenedMessages() throws Exception {
+        for (int size : HISTORY_SIZES) {
+            final OpenedMessageStore store = new OpenedMessageStore();
+            final List<UUID> history = new ArrayList<>();
+
+            for (int i = 0; i < size; i++) {
+                UUID messageUuid = UUID.randomUUID();
+                store.add(context, messageUuid);
+                history.add(messageUuid);
+            }
+
+            final UUID opened = history.get(size / 2);
+            final UUID notOpened = UUID.randomUUID();
+
+            runner.measure("isMessageOpened", params("history", size), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return store.contains(context, opened) & !store.contains(context, notOpened);
+                }
+            });
+
+            runner.measure("storeMessageOpened", params("history", size), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    UUID messageUuid = UUID.randomUUID();
+                    store.add(context, messageUuid);
+                    return messageUuid;
+                }
+            });
+        }
+    }
+
+    private void benchmarkTagComparison() throws Exception {
+        for (int count : TAG_COUNTS) {
+            final RegistrationState state = RegistrationState.EMPTY.withRegistration("token", createTags(count), UUID.randomUUID(), 0);
+            final List<String> sameTags = createTags(count);
+            Collections.reverse(sameTags);
+
+            runner.measure("tagComparison", params("tags", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return state.hasTags(sameTags);
+                }
+            });
+        }
+    }
+
+    private void benchmarkReceiverOptions() throws Exception {
+        for (int count : EXTRA_COUNTS) {
+            final Bundle extras = new Bundle();
+            extras.putString(StarFlightClient.TEXT_KEY, "Notification text");
+            extras.putString("uuid", UUID.randomUUID().toString());
+
+            for (int i = 0; i < count; i++) {
+                extras.putString("option" + i, "value" + i);
+            }
+
+            runner.measure("receiverOptions", params("extras", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return new StarFlightMessageOptions(extras).getString("option0");
+                }
+            });
+
+            runner.measure("receiverOptionsJson", params("extras", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() {
+                    return new StarFlightMessageOptions(extras).toJSONObject();
+                }
+            });
+        }
+    }
+
+    private void benchmarkRegisterFlow() throws Exception {
+        for (int count : new int[]{0, 100, 2000}) {
+            final StarFlightClient client = createClient(server);
+            final List<String> tags = createTags(count);
+            final String registrationId = "registration-" + UUID.randomUUID();
+
+            runner.measure("registerFlow", params("tags", count), new BenchmarkRunner.Benchmark() {
+                @Override
+                public Object run() throws Exception {
+                    RegistrationResponse response = client.sendRegistrationIdToBackend(new Cancellation(), registrationId, tags);
+                    client.storeRegistration(context, registrationId, tags, response.getClientUuid());
+                    return response;
+                }
+            });
+        }
+    }
+
+    private void benchmarkMessageOpenedFlow() throws Exception {
+        final StarFlightClient client = createClient(server);
+
+        runner.measure("messageOpenedFlow", params("batch", 1), new BenchmarkRunner.Benchmark() {
+            @Override
+            public Object run() {
+                client.messageOpened(context, UUID.randomUUID(), null);
+                client.flushOpenedMessages(context);
+                return null;
+            }
+        });
+
+        runner.measure("messageOpenedFlow", params("batch", MessageOpenedOutbox.FLUSH_SIZE), new BenchmarkRunner.Benchmark() {
+            @Override
+            public Object run() {
+                for (int i = 0; i < MessageOpenedOutbox.FLUSH_SIZE; i++) {
+                    client.messageOpened(context, UUID.randomUUID(), null);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private static Map<String, String> params(String name, int value) {
+        return Collections.singletonMap(name, String.valueOf(value));
+    }
+}
@@ -0,0 +1,222 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.DIRECT_EXECUTOR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dispatching of received push notifications to {@link StarFlightBroadcastReceiver} subclasses
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightBroadcastReceiverTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+    }
+
+    @Test
+    public void notificationIsPassedOnWithItsOptions() throws Exception {
+        RecordingReceiver receiver = new RecordingReceiver(DIRECT_EXECUTOR);
+        UUID messageUuid = UUID.randomUUID();
+        Bundle extras = createExtras(messageUuid);
+        extras.putString("url", "https://example.com");
+        extras.putString("count", " 42 ");
+        extras.putLong("big", 1L << 40);
+        extras.putString("flag", "TRUE");
+        extras.putString("tags", "[\"news\"]");
+
+        receiver.onReceive(context, createIntent(extras));
+
+        assertEquals(Arrays.asList(messageUuid), receiver.received);
+        assertEquals("Hello", receiver.text);
+        assertEquals("https://example.com", receiver.url);
+
+        StarFlightMessageOptions options = receiver.options;
+        assertEquals(new HashSet<>(Arrays.asList("count", "big", "flag", "tags")), options.keySet());
+        assertEquals(42, options.getInt("count", 0));
+        assertEquals(1L << 40, options.getLong("big", 0));
+        assertTrue(options.getBoolean("flag", false));
+        assertEquals("news", options.getJSONArray("tags").getString(0));
+        assertEquals(7, options.getInt("missing", 7));
+        assertFalse(options.has("text"));
+        assertNull(options.getString("uuid"));
+    }
+
+    @Test
+    public void malformedOptionsGetDefaults() {
+        RecordingReceiver receiver = new RecordingReceiver(DIRECT_EXECUTOR);
+        Bundle extras = createExtras(UUID.randomUUID());
+        extras.putString("count", "many");
+        extras.putString("flag", "yes");
+
+        receiver.onReceive(context, createIntent(extras));
+
+        assertEquals(3, receiver.options.getInt("count", 3));
+        assertEquals(3, receiver.options.getLong("count", 3));
+        assertFalse(receiver.options.getBoolean("flag", false));
+    }
+
+    @Test
+    public void redeliveredNotificationIsIgnored() {
+        RecordingReceiver receiver = new RecordingReceiver(DIRECT_EXECUTOR);
+        UUID messageUuid = UUID.randomUUID();
+
+        receiver.onReceive(context, createIntent(createExtras(messageUuid)));
+        receiver.onReceive(context, createIntent(createExtras(messageUuid)));
+
+        assertEquals(Arrays.asList(messageUuid), receiver.received);
+    }
+
+    @Test
+    public void redeliveredNotificationIsPassedOnWithoutWindow() {
+        RecordingReceiver receiver = new RecordingReceiver(DIRECT_EXECUTOR);
+        receiver.duplicateWindow = 0;
+        UUID messageUuid = UUID.randomUUID();
+
+        receiver.onReceive(context, createIntent(createExtras(messageUuid)));
+        receiver.onReceive(context, createIntent(createExtras(messageUuid)));
+
+        assertEquals(Arrays.asList(messageUuid, messageUuid), receiver.received);
+    }
+
+    @Test
+    public void broadcastsWithoutValidUuidAreIgnored() {
+        RecordingReceiver receiver = new RecordingReceiver(DIRECT_EXECUTOR);
+        Bundle extras = new Bundle();
+        extras.putString("text", "Hello");
+        Bundle invalid = createExtras(null);
+        invalid.putString("uuid", "not a uuid");
+
+        receiver.onReceive(context, new Intent());
+        receiver.onReceive(context, createIntent(extras));
+        receiver.onReceive(context, createIntent(invalid));
+
+        assertTrue(receiver.received.isEmpty());
+    }
+
+    @Test
+    public void rejectedNotificationIsHandledOnReceivingThread() {
+        RecordingReceiver receiver = new RecordingReceiver(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("Queue full");
+            }
+        });
+        UUID messageUuid = UUID.randomUUID();
+
+        receiver.onReceive(context, createIntent(createExtras(messageUuid)));
+
+        assertEquals(Arrays.asList(messageUuid), receiver.received);
+        assertSame(Thread.currentThread(), receiver.thread);
+    }
+
+    @Test
+    public void deprecatedEntryPointGetsOptionsAsJson() throws Exception {
+        final List<JSONObject> received = new ArrayList<>();
+        StarFlightBroadcastReceiver receiver = new StarFlightBroadcastReceiver() {
+            @Override
+            protected Executor getReceiveExecutor() {
+                return DIRECT_EXECUTOR;
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            public void onReceive(Context context, String text, String url, UUID messageUuid, JSONObject options) {
+                received.add(options);
+            }
+        };
+        Bundle extras = createExtras(UUID.randomUUID());
+        extras.putString("count", "42");
+
+        receiver.onReceive(context, createIntent(extras));
+
+        assertEquals(1, received.size());
+        assertEquals("42", received.get(0).getString("count"));
+        assertFalse(received.get(0).has("text"));
+    }
+
+    @Test
+    public void receiverWithoutEntryPointDropsNotification() {
+        StarFlightBroadcastReceiver receiver = new StarFlightBroadcastReceiver() {
+            @Override
+            protected Executor getReceiveExecutor() {
+                return DIRECT_EXECUTOR;
+            }
+        };
+
+        receiver.onReceive(context, createIntent(createExtras(UUID.randomUUID())));
+    }
+
+    private static Bundle createExtras(UUID messageUuid) {
+        Bundle extras = new Bundle();
+        extras.putString("text", "Hello");
+
+        if (messageUuid != null) {
+            extras.putString("uuid", messageUuid.toString());
+        }
+
+        return extras;
+    }
+
+    private static Intent createIntent(Bundle extras) {
+        return new Intent().putExtras(extras);
+    }
+
+    private static class RecordingReceiver extends StarFlightBroadcastReceiver {
+        final List<UUID> received = new ArrayList<>();
+        private final Executor executor;
+        int duplicateWindow = RecentMessageFilter.DEFAULT_CAPACITY;
+        String text;
+        String url;
+        StarFlightMessageOptions options;
+        Thread thread;
+
+        RecordingReceiver(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        protected Executor getReceiveExecutor() {
+            return executor;
+        }
+
+        @Override
+        protected int getDuplicateWindow() {
+            return duplicateWindow;
+        }
+
+        @Override
+        public void onReceive(Context context, String text, String url, UUID messageUuid, StarFlightMessageOptions options) {
+            received.add(messageUuid);
+            this.text = text;
+            this.url = url;
+            this.options = options;
+            this.thread = Thread.currentThread();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Holding of message open reports while the network is unavailable or a poor link, using a fake network state
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightClientConnectivityTest {
+
+    private static final long FLUSH_DELAY = MessageOpenedOutbox.FLUSH_DELAY;
+    private static final long MAX_HOLD = TimeUnit.MINUTES.toMillis(15);
+
+    private Context context;
+    private FakeConnectivity connectivity;
+    private MockStarFlightServer server;
+    private StarFlightClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        connectivity = new FakeConnectivity();
+        StarFlightClient.setConnectivity(connectivity);
+        server = new MockStarFlightServer();
+        client = createClient(server, "app-" + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StarFlightClient.setConnectivity(null);
+        server.stop();
+    }
+
+    @Test
+    public void opensAreSentRightAwayWhenConnected() {
+        connectivity.setState(true, false);
+
+        client.messageOpened(context, UUID.randomUUID(), null);
+        idle(FLUSH_DELAY);
+
+        assertEquals(1, server.getRequestCount("message_opened"));
+    }
+
+    @Test
+    public void opensAreHeldWhileOfflineAndSentOnceConnected() {
+        connectivity.setState(false, false);
+
+        client.messageOpened(context, UUID.randomUUID(), null);
+        idle(FLUSH_DELAY + MAX_HOLD * 2);
+        assertEquals(0, server.getRequestCount("message_opened"));
+
+        connectivity.setState(true, false);
+
+        assertEquals(1, server.getRequestCount("message_opened"));
+        assertEquals(0, connectivity.listeners.size());
+    }
+
+    @Test
+    public void opensAreHeldOnPoorLinkUntilBetterNetworkConnects() {
+        connectivity.setState(true, true);
+
+        client.messageOpened(context, UUID.randomUUID(), null);
+        idle(FLUSH_DELAY);
+        assertEquals(0, server.getRequestCount("message_opened"));
+
+        connectivity.setState(true, false);
+        assertEquals(1, server.getRequestCount("message_opened"));
+
+        // only the new open is sent, the hold timer adds nothing
+        client.messageOpened(context, UUID.randomUUID(), null);
+        idle(MAX_HOLD);
+        assertEquals(2, server.getRequestCount("message_opened"));
+    }
+
+    @Test
+    public void opensHeldOnPoorLinkAreSentAfterMaxHold() {
+        connectivity.setState(true, true);
+
+        client.messageOpened(context, UUID.randomUUID(), null);
+        idle(FLUSH_DELAY);
+        idle(MAX_HOLD - 1);
+        assertEquals(0, server.getRequestCount("message_opened"));
+
+        idle(1);
+        assertEquals(1, server.getRequestCount("message_opened"));
+
+        // the sent traffic no longer waits for a better network
+        assertEquals(0, connectivity.listeners.size());
+        connectivity.setState(true, false);
+        assertEquals(1, server.getRequestCount("message_opened"));
+    }
+
+    private static void idle(long millis) {
+        ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class FakeConnectivity implements StarFlightConnectivity {
+        final List<Runnable> listeners = new ArrayList<>();
+        private boolean connected;
+        private boolean poorLink;
+
+        void setState(boolean connected, boolean poorLink) {
+            this.connected = connected;
+            this.poorLink = poorLink;
+
+            if (connected && !poorLink) {
+                List<Runnable> waiting = new ArrayList<>(listeners);
+                listeners.clear();
+
+                for (Runnable listener : waiting) {
+                    listener.run();
+                }
+            }
+        }
+
+        @Override
+        public boolean isConnected(Context context) {
+            return connected;
+        }
+
+        @Override
+        public boolean isPoorLink(Context context) {
+            return connected && poorLink;
+        }
+
+        @Override
+        public void whenConnected(Context context, Runnable listener) {
+            if (connected && !poorLink) {
+                listener.run();
+            } else {
+                listeners.add(listener);
+            }
+        }
+
+        @Override
+        public void cancelWhenConnected(Context context, Runnable listener) {
+            listeners.remove(listener);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reporting of message opens to servers with and without support for several opens in one request
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightClientMessageOpenedTest {
+
+    private Context context;
+    private MockStarFlightServer server;
+    private StarFlightClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        server = new MockStarFlightServer();
+        client = createClient(server, "app-" + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void opensAreReportedOneByOneUntilServerAnnouncesBatches() throws Exception {
+        server.setOpenBatchesSupported(false);
+        Set<String> opened = openMessages(3);
+
+        client.flushOpenedMessages(context);
+
+        assertEquals(3, server.getRequestCount("message_opened"));
+        assertEquals(opened, server.getOpenedMessages());
+
+        // nothing is left to be reported
+        client.flushOpenedMessages(context);
+        assertEquals(3, server.getRequestCount("message_opened"));
+    }
+
+    @Test
+    public void opensAreReportedInBatchesOnceServerAnnouncesThem() throws Exception {
+        Set<String> opened = openMessages(1);
+        client.flushOpenedMessages(context);
+        assertEquals(1, server.getRequestCount("message_opened"));
+
+        opened.addAll(openMessages(3));
+        client.flushOpenedMessages(context);
+
+        assertEquals(2, server.getRequestCount("message_opened"));
+        assertEquals(opened, server.getOpenedMessages());
+    }
+
+    private Set<String> openMessages(int count) {
+        Set<String> opened = new TreeSet<>();
+
+        for (int i = 0; i < count; i++) {
+            UUID messageUuid = UUID.randomUUID();
+            client.messageOpened(context, messageUuid, null);
+            opened.add(messageUuid.toString());
+        }
+
+        return opened;
+    }
+}
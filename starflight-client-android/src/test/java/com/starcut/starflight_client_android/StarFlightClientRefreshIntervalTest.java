@@ -0,0 +1,86 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Spreading of registration refreshes over time, with seeds from a fixed random source
+ */
+public class StarFlightClientRefreshIntervalTest {
+
+    private static final long INTERVAL = StarFlightClient.REGISTRATION_REFRESH_INTERVAL;
+    private static final long SPREAD = StarFlightClient.REGISTRATION_REFRESH_SPREAD;
+    private static final long REGISTRATION_TIME = 1000000000000L;
+
+    @Test
+    public void intervalsStayWithinSpread() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            long interval = StarFlightClient.getRefreshInterval(random.nextLong());
+
+            assertTrue("interval " + interval, interval > INTERVAL - SPREAD);
+            assertTrue("interval " + interval, interval <= INTERVAL);
+        }
+    }
+
+    @Test
+    public void intervalsCoverSpread() {
+        Random random = new Random(42);
+        int[] buckets = new int[4];
+
+        for (int i = 0; i < 10000; i++) {
+            long earlier = INTERVAL - StarFlightClient.getRefreshInterval(random.nextLong());
+            buckets[(int) (earlier * buckets.length / SPREAD)]++;
+        }
+
+        for (int count : buckets) {
+            assertTrue("bucket of " + count, count > 2000);
+        }
+    }
+
+    @Test
+    public void similarSeedsAreSpread() {
+        assertTrue(Math.abs(StarFlightClient.getRefreshInterval(1) - StarFlightClient.getRefreshInterval(2)) > SPREAD / 100);
+    }
+
+    @Test
+    public void intervalIsFixedForInstallation() {
+        UUID clientUuid = new UUID(new Random(42).nextLong(), new Random(43).nextLong());
+
+        assertEquals(StarFlightClient.getRefreshInterval(registeredAt(clientUuid, 0)),
+                StarFlightClient.getRefreshInterval(registeredAt(clientUuid, REGISTRATION_TIME)));
+        assertEquals(StarFlightClient.getRefreshInterval(clientUuid.getLeastSignificantBits() ^ clientUuid.getMostSignificantBits()),
+                StarFlightClient.getRefreshInterval(registeredAt(clientUuid, REGISTRATION_TIME)));
+    }
+
+    @Test
+    public void refreshIsDueOnceIntervalHasPassed() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100; i++) {
+            RegistrationState state = registeredAt(new UUID(random.nextLong(), random.nextLong()), REGISTRATION_TIME);
+            long interval = StarFlightClient.getRefreshInterval(state);
+
+            assertFalse(StarFlightClient.isRefreshDue(state, REGISTRATION_TIME));
+            assertFalse(StarFlightClient.isRefreshDue(state, REGISTRATION_TIME + interval));
+            assertTrue(StarFlightClient.isRefreshDue(state, REGISTRATION_TIME + interval + 1));
+        }
+    }
+
+    @Test
+    public void refreshIsDueWithoutRegistrationTime() {
+        assertTrue(StarFlightClient.isRefreshDue(registeredAt(UUID.randomUUID(), -1), REGISTRATION_TIME));
+    }
+
+    private static RegistrationState registeredAt(UUID clientUuid, long time) {
+        return new RegistrationState("token", clientUuid, "token", time, Collections.<String>emptyList());
+    }
+}
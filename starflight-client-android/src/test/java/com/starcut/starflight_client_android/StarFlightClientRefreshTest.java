@@ -0,0 +1,120 @@
+package com.starcut.starflight_client_android;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Handling of the responses to registrations and their conditional refreshes
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightClientRefreshTest {
+
+    private static final List<String> TAGS = Arrays.asList("news", "sports");
+
+    private MockStarFlightServer server;
+    private StarFlightClient client;
+    private UUID clientUuid;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockStarFlightServer();
+        client = createClient(server);
+        clientUuid = client.sendRegistrationIdToBackend(new Cancellation(), "token", TAGS).getClientUuid();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void unchangedRegistrationIsRefreshed() throws Exception {
+        RegistrationResponse response = refresh(TAGS);
+
+        assertEquals(clientUuid, response.getClientUuid());
+        assertEquals(RegistrationResponse.Result.REFRESHED, response.getResult());
+    }
+
+    @Test
+    public void changedRegistrationIsSentInFull() throws Exception {
+        assertNull(refresh(Arrays.asList("news")));
+    }
+
+    @Test
+    public void successWithRegistrationIsDone() throws Exception {
+        UUID newClientUuid = UUID.randomUUID();
+
+        server.setRefreshResponse(200, "{\"clientUuid\":\"" + clientUuid + "\"}");
+        RegistrationResponse refreshed = refresh(TAGS);
+        server.setRefreshResponse(201, "{\"clientUuid\":\"" + newClientUuid + "\"}");
+        RegistrationResponse registered = refresh(TAGS);
+
+        assertEquals(clientUuid, refreshed.getClientUuid());
+        assertEquals(RegistrationResponse.Result.REFRESHED, refreshed.getResult());
+        assertEquals(newClientUuid, registered.getClientUuid());
+        assertEquals(RegistrationResponse.Result.REGISTERED, registered.getResult());
+    }
+
+    @Test
+    public void successWithoutRegistrationIsSentInFull() throws Exception {
+        server.setRefreshResponse(200, "");
+        assertNull(refresh(TAGS));
+
+        server.setRefreshResponse(200, "{\"status\":\"ok\"}");
+        assertNull(refresh(TAGS));
+    }
+
+    @Test
+    public void unsupportedRefreshIsSentInFull() throws Exception {
+        for (int status : new int[]{400, 404, 412, 501}) {
+            server.setRefreshResponse(status, "Unsupported");
+            assertNull("status " + status, refresh(TAGS));
+        }
+    }
+
+    @Test
+    public void otherErrorsFail() throws Exception {
+        for (int status : new int[]{401, 403, 429, 500, 503}) {
+            server.setRefreshResponse(status, "Failed");
+
+            try {
+                refresh(TAGS);
+                fail("status " + status);
+            } catch (StarFlightHttpException e) {
+                assertEquals(status, e.getStatusCode());
+            }
+        }
+    }
+
+    @Test
+    public void registrationSuccessWithoutClientUuidIsProtocolError() throws Exception {
+        for (String body : new String[]{"", "{\"status\":\"ok\"}", "[]", "{\"clientUuid\":\"not a uuid\"}"}) {
+            server.setRegisterResponse(200, body);
+
+            try {
+                client.sendRegistrationIdToBackend(new Cancellation(), "token", TAGS);
+                fail("body " + body);
+            } catch (JSONException e) {
+                assertFalse(RetryScheduler.isRetryable(e));
+            }
+        }
+    }
+
+    private RegistrationResponse refresh(List<String> tags) throws Exception {
+        return client.sendConditionalRefreshToBackend(new Cancellation(), "token", clientUuid, tags);
+    }
+}
@@ -0,0 +1,73 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createTags;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sending of large tag lists to servers with and without support for tag chunks
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightClientTagsTest {
+
+    private static final int TAG_COUNT = 1200;
+
+    private MockStarFlightServer server;
+    private StarFlightClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockStarFlightServer();
+        client = createClient(server);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void registrationIsSentWholeUntilServerAnnouncesChunks() throws Exception {
+        server.setTagChunksSupported(false);
+        List<String> tags = createTags(TAG_COUNT);
+
+        client.sendRegistrationIdToBackend(new Cancellation(), "token", tags);
+        client.sendRegistrationIdToBackend(new Cancellation(), "token", tags);
+
+        assertEquals(2, server.getRequestCount("register"));
+        assertEquals(new HashSet<>(tags), server.getTags("token"));
+    }
+
+    @Test
+    public void registrationIsSentInChunksOnceServerAnnouncesThem() throws Exception {
+        List<String> tags = createTags(TAG_COUNT);
+
+        client.sendRegistrationIdToBackend(new Cancellation(), "token", tags);
+        assertEquals(1, server.getRequestCount("register"));
+
+        client.sendRegistrationIdToBackend(new Cancellation(), "token", tags);
+        assertEquals(4, server.getRequestCount("register"));
+        assertEquals(new HashSet<>(tags), server.getTags("token"));
+    }
+
+    @Test
+    public void unregistrationIsSentInChunks() throws Exception {
+        server.setTagChunksSupported(false);
+        List<String> tags = createTags(TAG_COUNT);
+        client.sendRegistrationIdToBackend(new Cancellation(), "token", tags);
+
+        client.sendUnregistrationToBackend(new Cancellation(), "token", tags.subList(0, 700));
+
+        assertEquals(2, server.getRequestCount("unregister"));
+        assertEquals(new HashSet<>(tags.subList(700, TAG_COUNT)), server.getTags("token"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightEngineTest {
+
+    private static final String SERVER_URL = "http://127.0.0.1:1/push";
+
+    @Test
+    public void clientsOfSameExecutorAndServerShareEngine() {
+        Executor executor = Executors.newSingleThreadExecutor();
+        StarFlightClient first = new StarFlightClient("sender", "first", "secret", executor, SERVER_URL);
+        StarFlightClient second = new StarFlightClient("sender", "second", "secret", executor, SERVER_URL);
+
+        assertSame(first.getEngine(), second.getEngine());
+        assertNotSame(first.getEngine(), new StarFlightClient("sender", "first", "secret", executor, SERVER_URL + "/other").getEngine());
+    }
+
+    @Test
+    public void engineIsKeptWhileClientIsInUse() throws Exception {
+        Executor executor = Executors.newSingleThreadExecutor();
+        StarFlightClient client = new StarFlightClient("sender", "app", "secret", executor, SERVER_URL);
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertSame(client.getEngine(), new StarFlightClient("sender", "app", "secret", executor, SERVER_URL).getEngine());
+    }
+}
@@ -0,0 +1,88 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class StarFlightHistogramTest {
+
+    private final StarFlightHistogram histogram = new StarFlightHistogram();
+
+    @Test
+    public void latenciesAreCountedInPowerOfTwoBuckets() {
+        assertEquals(micros(2), upperBound(0));
+        assertEquals(micros(2), upperBound(micros(1)));
+        assertEquals(micros(4), upperBound(micros(2)));
+        assertEquals(micros(4), upperBound(micros(3)));
+        assertEquals(micros(1024), upperBound(micros(1000)));
+        assertEquals(micros(2048), upperBound(micros(1024)));
+        assertEquals(micros(2048), upperBound(micros(2047)));
+    }
+
+    @Test
+    public void latenciesBeyondLastBucketAreCountedInIt() {
+        long lastBound = micros(1L << 32);
+
+        assertEquals(lastBound, upperBound(TimeUnit.HOURS.toNanos(2)));
+        assertEquals(lastBound, upperBound(TimeUnit.DAYS.toNanos(365)));
+        assertEquals(lastBound, upperBound(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsOfRankedBucket() {
+        for (int i = 0; i < 90; i++) {
+            histogram.record(micros(10));
+        }
+
+        for (int i = 0; i < 9; i++) {
+            histogram.record(micros(100));
+        }
+
+        histogram.record(micros(1000));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(micros(16), histogram.getPercentile(0));
+        assertEquals(micros(16), histogram.getPercentile(50));
+        assertEquals(micros(16), histogram.getPercentile(90));
+        assertEquals(micros(128), histogram.getPercentile(90.5));
+        assertEquals(micros(128), histogram.getPercentile(99));
+        assertEquals(micros(1024), histogram.getPercentile(99.5));
+        assertEquals(micros(1024), histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesOutOfRangeAreClamped() {
+        histogram.record(micros(10));
+        histogram.record(micros(1000));
+
+        assertEquals(micros(16), histogram.getPercentile(-1));
+        assertEquals(micros(1024), histogram.getPercentile(150));
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(micros(10));
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    /**
+     * Records a single latency in an empty histogram and gets the upper bound of its bucket
+     */
+    private long upperBound(long nanos) {
+        histogram.reset();
+        histogram.record(nanos);
+        return histogram.getPercentile(100);
+    }
+
+    private static long micros(long micros) {
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+}
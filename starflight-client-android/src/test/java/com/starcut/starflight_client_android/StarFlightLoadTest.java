@@ -0,0 +1,242 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load generator that drives the StarFlight client stack against a {@link MockStarFlightServer}. Each simulated
+ * installation registers with tags, reports a few message opens, removes a tag and unregisters. Simulated
+ * installations are spread over a pool of worker threads, each of which uses its own client instance as a real
+ * process would. It only runs when the build is invoked with {@code -PloadTest}, for example:
+ *
+ * <pre>./gradlew :starflight-client-android:testDebugUnitTest -PloadTest --tests '*StarFlightLoadTest'</pre>
+ *
+ * The number of installations, concurrency, server latency and injected failure rate can be changed with the
+ * {@code starflight.loadtest.*} system properties. Results are written to {@code build/reports/loadtest}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightLoadTest {
+
+    private static final List<String> TAGS = Arrays.asList("news", "offers", "sports", "weather");
+
+    private final int installations = Integer.getInteger("starflight.loadtest.clients", 2000);
+    private final int concurrency = Integer.getInteger("starflight.loadtest.concurrency", 32);
+    private final int opensPerInstallation = Integer.getInteger("starflight.loadtest.opens", 3);
+    private final long serverLatency = Long.getLong("starflight.loadtest.latency", 5);
+    private final double failureRate = Double.parseDouble(System.getProperty("starflight.loadtest.failureRate", "0.01"));
+
+    private final RecordingMetrics metrics = new RecordingMetrics();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private MockStarFlightServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("starflight.loadtest"));
+        server = new MockStarFlightServer(concurrency);
+        server.setLatency(0, serverLatency * 2);
+        server.setFailureRate(failureRate, 503);
+        StarFlightClient.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        StarFlightClient.setMetrics(null);
+
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void simulateInstallations() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        final ThreadLocal<StarFlightClient> clients = new ThreadLocal<StarFlightClient>() {
+            @Override
+            protected StarFlightClient initialValue() {
+                return createClient(server);
+            }
+        };
+
+        final CountDownLatch done = new CountDownLatch(installations);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < installations; i++) {
+            final String token = "token-" + i + "-" + UUID.randomUUID();
+
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        simulateInstallation(clients.get(), token);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await(30, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        workers.shutdownNow();
+
+        String report = report(elapsed);
+        writeReport(report);
+
+        // every failure seen by the client must be one the server injected
+        assertEquals(report, server.getInjectedFailures(), count(errors.values()));
+    }
+
+    private void simulateInstallation(StarFlightClient client, String token) {
+        try {
+            client.sendRegistrationIdToBackend(new Cancellation(), token, TAGS);
+        } catch (Exception e) {
+            recordError(e);
+            return;
+        }
+
+        for (int i = 0; i < opensPerInstallation; i++) {
+            try {
+                client.sendMessagesOpenedToBackend(new Cancellation(), token, Collections.singletonList(UUID.randomUUID()));
+            } catch (Exception e) {
+                recordError(e);
+            }
+        }
+
+        try {
+            client.sendUnregistrationToBackend(new Cancellation(), token, TAGS.subList(0, 1));
+            client.sendUnregistrationToBackend(new Cancellation(), token, null);
+        } catch (Exception e) {
+            recordError(e);
+        }
+    }
+
+    private void recordError(Exception e) {
+        String key = e instanceof StarFlightHttpException
+                ? "HTTP " + ((StarFlightHttpException) e).getStatusCode()
+                : e.getClass().getSimpleName();
+        AtomicLong count = errors.get(key);
+
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errors.putIfAbsent(key, created);
+            count = count == null ? created : count;
+        }
+
+        count.incrementAndGet();
+    }
+
+    private String report(long elapsedNanos) {
+        StringBuilder report = new StringBuilder();
+        double seconds = elapsedNanos / 1e9;
+        long requests = 0;
+
+        for (StarFlightMetrics.Action action : StarFlightMetrics.Action.values()) {
+            requests += metrics.latencies[action.ordinal()].getCount();
+        }
+
+        report.append(String.format(Locale.US, "%d installations, %d workers, %.1f s, %d requests, %.1f requests/s%n",
+                installations, concurrency, seconds, requests, requests / seconds));
+
+        for (StarFlightMetrics.Action action : StarFlightMetrics.Action.values()) {
+            StarFlightHistogram latency = metrics.latencies[action.ordinal()];
+            report.append(String.format(Locale.US, "%-15s %8d requests  p50 < %7.1f ms  p95 < %7.1f ms  p99 < %7.1f ms  p99.9 < %7.1f ms%n",
+                    action, latency.getCount(), latency.getPercentile(50) / 1e6, latency.getPercentile(95) / 1e6,
+                    latency.getPercentile(99) / 1e6, latency.getPercentile(99.9) / 1e6));
+        }
+
+        report.append("Status codes: ").append(new TreeMap<>(metrics.statusCodes)).append('\n');
+        report.append("Client errors: ").append(new TreeMap<>(errors)).append('\n');
+        report.append("Injected failures: ").append(server.getInjectedFailures()).append('\n');
+        report.append("Registrations left on server: ").append(server.getRegistrationCount()).append('\n');
+        return report.toString();
+    }
+
+    private void writeReport(String report) throws IOException {
+        File directory = new File(System.getProperty("starflight.loadtest.output", "build/reports/loadtest"));
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        Writer writer = new FileWriter(new File(directory, StarFlightLoadTest.class.getSimpleName() + ".txt"));
+
+        try {
+            writer.write(report);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long count(Iterable<AtomicLong> counts) {
+        long total = 0;
+
+        for (AtomicLong count : counts) {
+            total += count.get();
+        }
+
+        return total;
+    }
+
+    private static class RecordingMetrics implements StarFlightMetrics {
+        final StarFlightHistogram[] latencies = new StarFlightHistogram[Action.values().length];
+        final Map<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+
+        RecordingMetrics() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new StarFlightHistogram();
+            }
+
+            for (int code : new int[]{0, 200, 201, 400, 503}) {
+                statusCodes.put(code, new AtomicLong());
+            }
+        }
+
+        @Override
+        public void onRequest(Action action, long latencyNanos, int statusCode, long bytesSent, long bytesReceived) {
+            latencies[action.ordinal()].record(latencyNanos);
+            AtomicLong count = statusCodes.get(statusCode);
+
+            if (count != null) {
+                count.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onRetryScheduled(Action action, int attempt, long delayMillis) {
+        }
+
+        @Override
+        public void onCallbackDispatched(long delayNanos) {
+        }
+
+        @Override
+        public void onMessageDispatched(long delayNanos) {
+        }
+    }
+}
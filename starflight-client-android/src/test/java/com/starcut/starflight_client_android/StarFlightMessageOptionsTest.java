@@ -0,0 +1,54 @@
+package com.starcut.starflight_client_android;
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightMessageOptionsTest {
+
+    @Test
+    public void intsInRangeAreRead() {
+        Bundle extras = new Bundle();
+        extras.putString("max", String.valueOf(Integer.MAX_VALUE));
+        extras.putString("min", String.valueOf(Integer.MIN_VALUE));
+        extras.putLong("number", 42);
+        StarFlightMessageOptions options = new StarFlightMessageOptions(extras);
+
+        assertEquals(Integer.MAX_VALUE, options.getInt("max", 0));
+        assertEquals(Integer.MIN_VALUE, options.getInt("min", 0));
+        assertEquals(42, options.getInt("number", 0));
+    }
+
+    @Test
+    public void intsOutOfRangeGetDefault() {
+        Bundle extras = new Bundle();
+        extras.putString("above", String.valueOf(Integer.MAX_VALUE + 1L));
+        extras.putString("below", String.valueOf(Integer.MIN_VALUE - 1L));
+        extras.putLong("timestamp", 1500000000000L);
+        StarFlightMessageOptions options = new StarFlightMessageOptions(extras);
+
+        assertEquals(-1, options.getInt("above", -1));
+        assertEquals(-1, options.getInt("below", -1));
+        assertEquals(-1, options.getInt("timestamp", -1));
+        assertEquals(1500000000000L, options.getLong("timestamp", -1));
+        assertEquals(Integer.MAX_VALUE + 1L, options.getLong("above", -1));
+    }
+
+    @Test
+    public void reservedKeysAreNotOptions() {
+        Bundle extras = new Bundle();
+        extras.putString("text", "1");
+        extras.putString("url", "2");
+        extras.putString("uuid", "3");
+        StarFlightMessageOptions options = new StarFlightMessageOptions(extras);
+
+        assertEquals(0, options.keySet().size());
+        assertEquals(-1, options.getInt("text", -1));
+        assertEquals(-1, options.getLong("uuid", -1));
+    }
+}
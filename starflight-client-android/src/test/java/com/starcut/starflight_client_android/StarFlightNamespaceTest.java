@@ -0,0 +1,95 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.DIRECT_EXECUTOR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightNamespaceTest {
+
+    private static final String BASE_NAME = "StarFlightNamespaceTest";
+
+    private Context context;
+    private SharedPreferences legacy;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        legacy = context.getSharedPreferences(BASE_NAME, Context.MODE_PRIVATE);
+        legacy.edit().putString("registration_id_1", "token").putString("retained", "kept").commit();
+    }
+
+    @After
+    public void tearDown() {
+        StarFlightNamespace.setLegacyAppId(null);
+    }
+
+    @Test
+    public void namespaceIsSharedPerApp() {
+        String appId = "app-" + UUID.randomUUID();
+
+        assertSame(StarFlightNamespace.get(appId, DIRECT_EXECUTOR), StarFlightNamespace.get(appId, DIRECT_EXECUTOR));
+    }
+
+    @Test
+    public void legacyStateMovesToLegacyApp() {
+        String appId = "app-" + UUID.randomUUID();
+        StarFlightNamespace.setLegacyAppId(appId);
+
+        SharedPreferences prefs = StarFlightNamespace.get(appId, DIRECT_EXECUTOR).getPreferences(context, BASE_NAME, "retained");
+
+        assertEquals("token", prefs.getString("registration_id_1", null));
+        assertNull(prefs.getString("retained", null));
+        assertNull(legacy.getString("registration_id_1", null));
+        assertEquals("kept", legacy.getString("retained", null));
+    }
+
+    @Test
+    public void legacyStateIsNotTakenByOtherApp() {
+        StarFlightNamespace.setLegacyAppId("app-" + UUID.randomUUID());
+
+        SharedPreferences prefs = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR).getPreferences(context, BASE_NAME);
+
+        assertNull(prefs.getString("registration_id_1", null));
+        assertEquals("token", legacy.getString("registration_id_1", null));
+    }
+
+    @Test
+    public void legacyStateIsLeftInPlaceWhileSeveralAppsAreUsed() {
+        StarFlightNamespace first = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR);
+        StarFlightNamespace second = StarFlightNamespace.get("app-" + UUID.randomUUID(), DIRECT_EXECUTOR);
+
+        SharedPreferences firstPrefs = first.getPreferences(context, BASE_NAME);
+        SharedPreferences secondPrefs = second.getPreferences(context, BASE_NAME);
+
+        assertNull(firstPrefs.getString("registration_id_1", null));
+        assertNull(secondPrefs.getString("registration_id_1", null));
+        assertEquals("token", legacy.getString("registration_id_1", null));
+    }
+
+    @Test
+    public void ownStateIsNotOverwritten() {
+        String appId = "app-" + UUID.randomUUID();
+        StarFlightNamespace.setLegacyAppId(appId);
+        context.getSharedPreferences(BASE_NAME + ".app." + appId, Context.MODE_PRIVATE).edit()
+                .putString("registration_id_1", "own").commit();
+
+        SharedPreferences prefs = StarFlightNamespace.get(appId, DIRECT_EXECUTOR).getPreferences(context, BASE_NAME);
+
+        assertEquals("own", prefs.getString("registration_id_1", null));
+        assertNull(legacy.getString("registration_id_1", null));
+    }
+}
@@ -0,0 +1,209 @@
+package com.starcut.starflight_client_android;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
+import android.support.v4.app.NotificationCompat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Coalescing of notification bursts and rate limiting of alerts, with the dispatcher posting on the main looper
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightNotificationDispatcherTest {
+
+    private static final long BURST_WINDOW = TimeUnit.SECONDS.toMillis(3);
+    private static final long MIN_ALERT_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+
+    private Context context;
+    private NotificationManager notificationManager;
+    private RecordingFactory factory;
+    private StarFlightNotificationDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.application;
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        factory = new RecordingFactory();
+        dispatcher = new StarFlightNotificationDispatcher(factory, new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void firstMessageIsPostedRightAway() {
+        dispatcher.dispatch(context, "news", "first");
+        idle(0);
+
+        assertEquals(1, factory.builders.size());
+        assertEquals("first", factory.last().text);
+        assertEquals(0, factory.last().number);
+        assertEquals(1, notificationManager.getActiveNotifications().length);
+    }
+
+    @Test
+    public void burstIsPostedAsOneSummaryAtEndOfWindow() {
+        dispatcher.dispatch(context, "news", "first");
+        idle(0);
+
+        dispatcher.dispatch(context, "news", "second");
+        dispatcher.dispatch(context, "news", "third");
+        idle(BURST_WINDOW - 1);
+        assertEquals(1, factory.builders.size());
+
+        idle(1);
+        assertEquals(2, factory.builders.size());
+        assertEquals("third", factory.last().text);
+        assertEquals(3, factory.last().number);
+        assertEquals(1, notificationManager.getActiveNotifications().length);
+    }
+
+    @Test
+    public void tagsArePostedSeparately() {
+        dispatcher.dispatch(context, "news", "first");
+        dispatcher.dispatch(context, "sports", "second");
+        dispatcher.dispatch(context, null, "third");
+        idle(0);
+
+        assertEquals(Arrays.asList("news", "sports", null), factory.tags);
+        assertEquals(3, notificationManager.getActiveNotifications().length);
+    }
+
+    @Test
+    public void alertsAreRateLimitedAcrossTags() {
+        dispatcher.dispatch(context, "news", "first");
+        dispatcher.dispatch(context, "sports", "second");
+        idle(0);
+
+        assertTrue(factory.builders.get(0).alerting);
+        assertFalse(factory.builders.get(1).alerting);
+
+        idle(MIN_ALERT_INTERVAL);
+        dispatcher.dispatch(context, "weather", "third");
+        idle(0);
+
+        assertTrue(factory.last().alerting);
+    }
+
+    @Test
+    public void fastMessagesQueueOnePostPerTag() {
+        dispatcher.dispatch(context, "news", "first");
+        idle(0);
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.dispatch(context, "news", "message " + i);
+        }
+
+        idle(BURST_WINDOW);
+
+        assertEquals(2, factory.builders.size());
+        assertEquals(1001, factory.last().number);
+        assertEquals("message 999", factory.last().text);
+    }
+
+    @Test
+    public void dismissedNotificationIsFollowedByNewMessagesOnly() {
+        dispatcher.dispatch(context, "news", "first");
+        idle(0);
+        dismissAll();
+
+        dispatcher.dispatch(context, "news", "second");
+        idle(BURST_WINDOW);
+
+        assertEquals(2, factory.builders.size());
+        assertEquals("second", factory.last().text);
+        assertEquals(0, factory.last().number);
+    }
+
+    @Test
+    public void clearedTagStartsOver() {
+        dispatcher.dispatch(context, "news", "first");
+        idle(0);
+        dispatcher.dispatch(context, "news", "second");
+        idle(BURST_WINDOW);
+
+        dispatcher.clear(context, "news");
+        assertEquals(0, notificationManager.getActiveNotifications().length);
+
+        dispatcher.dispatch(context, "news", "third");
+        idle(0);
+
+        assertEquals(3, factory.builders.size());
+        assertEquals("third", factory.last().text);
+        assertEquals(0, factory.last().number);
+    }
+
+    private void dismissAll() {
+        for (StatusBarNotification notification : notificationManager.getActiveNotifications()) {
+            notificationManager.cancel(notification.getTag(), notification.getId());
+        }
+    }
+
+    private static void idle(long millis) {
+        ShadowLooper.idleMainLooper(millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class RecordingFactory implements StarFlightNotificationDispatcher.NotificationFactory {
+        final List<RecordingBuilder> builders = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+
+        @Override
+        public NotificationCompat.Builder createBuilder(Context context, String tag) {
+            RecordingBuilder builder = new RecordingBuilder(context);
+            builder.setSmallIcon(android.R.drawable.stat_notify_chat).setContentTitle("StarFlight");
+            builders.add(builder);
+            tags.add(tag);
+            return builder;
+        }
+
+        RecordingBuilder last() {
+            return builders.get(builders.size() - 1);
+        }
+    }
+
+    /**
+     * Remembers what the dispatcher sets on the notifications it posts
+     */
+    private static class RecordingBuilder extends NotificationCompat.Builder {
+        CharSequence text;
+        int number;
+        boolean alerting = true;
+
+        RecordingBuilder(Context context) {
+            super(context);
+        }
+
+        @Override
+        public NotificationCompat.Builder setContentText(CharSequence text) {
+            this.text = text;
+            return super.setContentText(text);
+        }
+
+        @Override
+        public NotificationCompat.Builder setNumber(int number) {
+            this.number = number;
+            return super.setNumber(number);
+        }
+
+        @Override
+        public NotificationCompat.Builder setDefaults(int defaults) {
+            alerting = defaults != 0;
+            return super.setDefaults(defaults);
+        }
+    }
+}
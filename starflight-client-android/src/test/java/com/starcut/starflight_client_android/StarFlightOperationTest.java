@@ -0,0 +1,335 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StarFlightOperationTest {
+
+    private StarFlightOperation<Result> operation;
+    private RecordingCallback callback;
+
+    @Before
+    public void setUp() {
+        operation = new StarFlightOperation<>();
+        callback = new RecordingCallback();
+        operation.addCallback(callback, null);
+    }
+
+    @Test
+    public void firstResultWins() throws Exception {
+        Result result = new Result();
+
+        operation.asCallback().onSuccess(result);
+        operation.asCallback().onFailure("failed", null);
+
+        assertTrue(operation.isDone());
+        assertSame(result, operation.get());
+        assertEquals(1, callback.calls.get());
+        assertSame(result, callback.result);
+        assertFalse(operation.cancel());
+    }
+
+    @Test
+    public void failureIsThrownByGet() throws Exception {
+        IllegalStateException cause = new IllegalStateException();
+
+        operation.asCallback().onFailure("failed", cause);
+
+        try {
+            operation.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+
+        assertEquals("failed", callback.failure);
+    }
+
+    @Test
+    public void cancelFailsRightAway() throws Exception {
+        assertTrue(operation.cancel());
+        operation.asCallback().onSuccess(new Result());
+
+        assertTrue(operation.isDone());
+        assertTrue(operation.isCancelled());
+        assertFalse(operation.isTimedOut());
+        assertEquals(1, callback.calls.get());
+        assertTrue(callback.throwable instanceof CancellationException);
+        assertFalse(operation.cancel());
+
+        try {
+            operation.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void timeoutFailsOperation() throws Exception {
+        operation.setTimeout(50);
+
+        try {
+            operation.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        assertTrue(operation.isTimedOut());
+        assertFalse(operation.isCancelled());
+        // get() may return before the listeners have run on the timeout thread
+        assertTrue(callback.called.await(5, TimeUnit.SECONDS));
+        assertTrue(callback.throwable instanceof TimeoutException);
+    }
+
+    @Test
+    public void completionBeforeTimeoutWins() throws Exception {
+        Result result = new Result();
+        operation.setTimeout(50);
+
+        operation.asCallback().onSuccess(result);
+        Thread.sleep(150);
+
+        assertFalse(operation.isTimedOut());
+        assertSame(result, operation.get());
+        assertEquals(1, callback.calls.get());
+    }
+
+    @Test
+    public void getTimesOutWhileRunning() throws Exception {
+        try {
+            operation.get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException expected) {
+        }
+
+        assertFalse(operation.isDone());
+    }
+
+    @Test
+    public void listenerWithoutExecutorRunsOnCompletingThread() throws Exception {
+        final Thread[] threads = new Thread[2];
+        operation.addListener(threadRecorder(threads, 0), null);
+
+        Thread completing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                operation.asCallback().onSuccess(new Result());
+            }
+        });
+        completing.start();
+        completing.join();
+        operation.addListener(threadRecorder(threads, 1), null);
+
+        assertSame(completing, threads[0]);
+        assertSame(Thread.currentThread(), threads[1]);
+    }
+
+    @Test
+    public void listenersRunOnTheirOwnExecutors() {
+        QueueExecutor first = new QueueExecutor();
+        QueueExecutor second = new QueueExecutor();
+        RecordingCallback firstCallback = new RecordingCallback();
+        RecordingCallback secondCallback = new RecordingCallback();
+        operation.addCallback(firstCallback, first);
+
+        operation.asCallback().onFailure("failed", null);
+        operation.addCallback(secondCallback, second);
+
+        assertEquals("failed", callback.failure);
+        assertEquals(0, firstCallback.calls.get());
+        assertEquals(0, secondCallback.calls.get());
+
+        first.runAll();
+        assertEquals("failed", firstCallback.failure);
+        assertEquals(0, secondCallback.calls.get());
+
+        second.runAll();
+        assertEquals("failed", secondCallback.failure);
+    }
+
+    @Test
+    public void cancelledOperationNotifiesThroughExecutor() {
+        QueueExecutor executor = new QueueExecutor();
+        RecordingCallback dispatched = new RecordingCallback();
+        operation.addCallback(dispatched, executor);
+
+        operation.cancel();
+
+        assertEquals(0, dispatched.calls.get());
+        executor.runAll();
+        assertTrue(dispatched.throwable instanceof CancellationException);
+    }
+
+    @Test
+    public void abandonListenerIsToldOfCancel() {
+        AtomicInteger abandoned = new AtomicInteger();
+        operation.setAbandonListener(countingListener(abandoned));
+
+        operation.cancel();
+        operation.cancel();
+
+        assertEquals(1, abandoned.get());
+    }
+
+    @Test
+    public void abandonListenerSetAfterCancelIsCalledRightAway() {
+        AtomicInteger abandoned = new AtomicInteger();
+
+        operation.cancel();
+        operation.setAbandonListener(countingListener(abandoned));
+
+        assertEquals(1, abandoned.get());
+    }
+
+    @Test
+    public void abandonListenerIsNotCalledAfterCompletion() {
+        AtomicInteger abandoned = new AtomicInteger();
+        operation.setAbandonListener(countingListener(abandoned));
+
+        operation.asCallback().onSuccess(new Result());
+        operation.cancel();
+        operation.setAbandonListener(countingListener(abandoned));
+
+        assertEquals(0, abandoned.get());
+    }
+
+    @Test
+    public void cancellationNotifiesListenerOnce() {
+        Cancellation cancellation = new Cancellation();
+        AtomicInteger cancelled = new AtomicInteger();
+        cancellation.setListener(countingListener(cancelled));
+
+        assertTrue(cancellation.cancel(false));
+        assertFalse(cancellation.cancel(true));
+
+        assertEquals(1, cancelled.get());
+        assertTrue(cancellation.isCancelled());
+        assertFalse(cancellation.isTimedOut());
+    }
+
+    @Test
+    public void cancellationListenerSetAfterCancelIsCalledRightAway() {
+        Cancellation cancellation = new Cancellation();
+        AtomicInteger cancelled = new AtomicInteger();
+
+        cancellation.cancel(false);
+        cancellation.setListener(countingListener(cancelled));
+
+        assertEquals(1, cancelled.get());
+    }
+
+    @Test
+    public void cancellationDeadlineTimesOut() throws Exception {
+        Cancellation cancellation = new Cancellation();
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        cancellation.setListener(new Cancellation.Listener() {
+            @Override
+            public void onCancel() {
+                cancelled.countDown();
+            }
+        });
+
+        cancellation.cancelAfter(50);
+
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertTrue(cancellation.isTimedOut());
+
+        try {
+            cancellation.throwIfCancelled();
+            fail();
+        } catch (InterruptedIOException e) {
+            assertEquals("Operation timed out", e.getMessage());
+        }
+    }
+
+    @Test
+    public void completedCancellationDoesNotTimeOut() throws Exception {
+        Cancellation cancellation = new Cancellation();
+
+        cancellation.cancelAfter(50);
+        cancellation.complete();
+        Thread.sleep(150);
+
+        assertFalse(cancellation.isCancelled());
+        cancellation.throwIfCancelled();
+    }
+
+    private static Cancellation.Listener countingListener(final AtomicInteger count) {
+        return new Cancellation.Listener() {
+            @Override
+            public void onCancel() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    private static Runnable threadRecorder(final Thread[] threads, final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                threads[index] = Thread.currentThread();
+            }
+        };
+    }
+
+    private static class QueueExecutor implements Executor {
+        final Queue<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+
+            while ((task = queue.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static class Result implements StarFlightResponse {
+    }
+
+    private static class RecordingCallback implements StarFlightCallback<Result> {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch called = new CountDownLatch(1);
+        volatile Result result;
+        volatile String failure;
+        volatile Throwable throwable;
+
+        @Override
+        public void onSuccess(Result result) {
+            this.result = result;
+            calls.incrementAndGet();
+            called.countDown();
+        }
+
+        @Override
+        public void onFailure(String message, Throwable t) {
+            failure = message;
+            throwable = t;
+            calls.incrementAndGet();
+            called.countDown();
+        }
+    }
+}
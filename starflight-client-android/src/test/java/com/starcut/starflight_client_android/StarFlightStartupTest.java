@@ -0,0 +1,110 @@
+package com.starcut.starflight_client_android;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.gcm.GoogleCloudMessaging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One-time initialization work of the client: the cached Google Play Services check and the startup timings
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightStartupTest {
+
+    private Context context;
+    private MockStarFlightServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        server = new MockStarFlightServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void playServicesStatusIsCachedUntilItsPackageChanges() {
+        PlayServicesAvailability.invalidate();
+        int status = PlayServicesAvailability.getStatus(context);
+
+        assertTrue(PlayServicesAvailability.isCached());
+        assertEquals(status, PlayServicesAvailability.getStatus(context));
+        assertTrue(PlayServicesAvailability.getCheckNanos() >= 0);
+
+        sendPackageBroadcast(Intent.ACTION_PACKAGE_REPLACED, "com.example.other");
+        assertTrue(PlayServicesAvailability.isCached());
+
+        sendPackageBroadcast(Intent.ACTION_PACKAGE_REPLACED, GooglePlayServicesUtil.GOOGLE_PLAY_SERVICES_PACKAGE);
+        assertFalse(PlayServicesAvailability.isCached());
+
+        assertEquals(status, PlayServicesAvailability.getStatus(context));
+        assertTrue(PlayServicesAvailability.isCached());
+    }
+
+    @Test
+    public void playServicesStatusIsDroppedOnEveryKindOfPackageChange() {
+        for (String action : new String[]{Intent.ACTION_PACKAGE_ADDED, Intent.ACTION_PACKAGE_CHANGED,
+                Intent.ACTION_PACKAGE_REPLACED, Intent.ACTION_PACKAGE_REMOVED}) {
+            PlayServicesAvailability.invalidate();
+            PlayServicesAvailability.getStatus(context);
+
+            sendPackageBroadcast(action, GooglePlayServicesUtil.GOOGLE_PLAY_SERVICES_PACKAGE);
+
+            assertFalse(action, PlayServicesAvailability.isCached());
+        }
+    }
+
+    @Test
+    public void timingsAreReportedOnceWorkIsDone() {
+        StarFlightClient client = createClient(server, "app-" + UUID.randomUUID());
+
+        StarFlightStartupTimings timings = client.getStartupTimings();
+        assertTrue(timings.getConstructionNanos() >= 0);
+        assertEquals(-1, timings.getStateLoadNanos());
+        assertEquals(-1, timings.getGcmInitNanos());
+        assertTrue(timings.toString().contains("stateLoad=n/a"));
+
+        client.isRegistered(context);
+
+        timings = client.getStartupTimings();
+        assertTrue(timings.getStateLoadNanos() >= 0);
+        assertEquals(-1, timings.getGcmInitNanos());
+        assertFalse(timings.toString().contains("stateLoad=n/a"));
+    }
+
+    @Test
+    public void messageTypeIsReadWithoutGcm() {
+        Intent message = new Intent();
+        Intent deleted = new Intent();
+        deleted.putExtra("message_type", GoogleCloudMessaging.MESSAGE_TYPE_DELETED);
+
+        assertEquals(GoogleCloudMessaging.MESSAGE_TYPE_MESSAGE, StarFlightBroadcastReceiver.getMessageType(message));
+        assertEquals(GoogleCloudMessaging.MESSAGE_TYPE_DELETED, StarFlightBroadcastReceiver.getMessageType(deleted));
+    }
+
+    private void sendPackageBroadcast(String action, String packageName) {
+        context.sendBroadcast(new Intent(action).setData(Uri.fromParts("package", packageName, null)));
+        ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,52 @@
+package com.starcut.starflight_client_android;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Fixtures shared by the tests that drive a {@link StarFlightClient} against a {@link MockStarFlightServer}
+ */
+final class StarFlightTestSupport {
+
+    /**
+     * Runs tasks right away on the calling thread, so that client operations complete before they return
+     */
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private StarFlightTestSupport() {
+    }
+
+    /**
+     * Creates a client that talks to the supplied server and runs its work on the calling thread
+     */
+    static StarFlightClient createClient(MockStarFlightServer server) {
+        return createClient(server, "app");
+    }
+
+    /**
+     * Creates a client of the supplied app like {@link #createClient(MockStarFlightServer)}, for tests that need
+     * state of their own
+     */
+    static StarFlightClient createClient(MockStarFlightServer server, String appId) {
+        return new StarFlightClient("sender", appId, "secret", DIRECT_EXECUTOR, server.getUrl());
+    }
+
+    /**
+     * Creates the supplied number of distinct tags
+     */
+    static List<String> createTags(int count) {
+        List<String> tags = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            tags.add("topic-" + i);
+        }
+
+        return tags;
+    }
+}
@@ -0,0 +1,211 @@
+package com.starcut.starflight_client_android;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createClient;
+import static com.starcut.starflight_client_android.StarFlightTestSupport.createTags;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Connection reuse, reading of push server responses and negotiation of compression, against a
+ * {@link MockStarFlightServer}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StarFlightTransportTest {
+
+    private static final int OVERSIZED_BODY_LENGTH = 1024 * 1024;
+
+    private final RecordingMetrics metrics = new RecordingMetrics();
+    private MockStarFlightServer server;
+    private StarFlightTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockStarFlightServer();
+        transport = new StarFlightTransport(server.getUrl());
+        StarFlightClient.setMetrics(metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        StarFlightClient.setMetrics(null);
+        server.stop();
+    }
+
+    @Test
+    public void requestsReuseOneConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            post(register(0));
+        }
+
+        server.setRegisterResponse(503, "Unavailable");
+        assertEquals(503, post(register(0)).code);
+        server.setRegisterResponse(200, "{\"clientUuid\":\"" + UUID.randomUUID() + "\"}");
+        assertEquals(200, post(register(0)).code);
+
+        assertEquals(7, server.getRequestCount("register"));
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void clientsOfOneServerShareTransport() throws Exception {
+        StarFlightClient first = createClient(server, "app-" + UUID.randomUUID());
+        StarFlightClient second = createClient(server, "app-" + UUID.randomUUID());
+
+        first.sendRegistrationIdToBackend(new Cancellation(), "first", Collections.<String>emptyList());
+        second.sendRegistrationIdToBackend(new Cancellation(), "second", Collections.<String>emptyList());
+        first.sendUnregistrationToBackend(new Cancellation(), "first", null);
+
+        assertSame(first.getEngine().getTransport(), second.getEngine().getTransport());
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void oversizedResponseFailsWithoutBeingReadWhole() throws Exception {
+        server.setGzipSupported(false);
+        server.setRegisterResponse(200, createBody(OVERSIZED_BODY_LENGTH));
+
+        assertResponseTooLarge();
+        assertTrue("read " + metrics.bytesReceived, metrics.bytesReceived <= StarFlightTransport.MAX_RESPONSE_SIZE + 1024);
+    }
+
+    @Test
+    public void oversizedCompressedResponseFailsOnceDecoded() throws Exception {
+        server.setRegisterResponse(200, createBody(OVERSIZED_BODY_LENGTH));
+
+        assertResponseTooLarge();
+        assertTrue("read " + metrics.bytesReceived, metrics.bytesReceived < StarFlightTransport.MAX_RESPONSE_SIZE);
+    }
+
+    @Test
+    public void connectionIsUsableAfterOversizedResponse() throws Exception {
+        server.setGzipSupported(false);
+        server.setRegisterResponse(200, createBody(OVERSIZED_BODY_LENGTH));
+        assertResponseTooLarge();
+
+        server.setRegisterResponse(0, null);
+
+        assertEquals(201, post(register(0)).code);
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void compressedResponseIsDecoded() throws Exception {
+        UUID clientUuid = UUID.randomUUID();
+        String body = "{\"clientUuid\":\"" + clientUuid + "\"," + createBody(8192).substring(1);
+        server.setRegisterResponse(200, body);
+
+        RegistrationResponse response = createClient(server).sendRegistrationIdToBackend(new Cancellation(), "token", Collections.<String>emptyList());
+
+        assertEquals(clientUuid, response.getClientUuid());
+        assertTrue("read " + metrics.bytesReceived, metrics.bytesReceived < body.length());
+    }
+
+    @Test
+    public void largeRequestsAreCompressedOnceServerAnnouncesGzip() throws Exception {
+        post(register(100));
+        assertEquals(0, server.getRequestCount("gzip"));
+
+        post(register(100));
+        post(register(0));
+
+        assertEquals(1, server.getRequestCount("gzip"));
+        assertEquals(3, server.getRequestCount("register"));
+    }
+
+    @Test
+    public void rejectedCompressionIsResentPlainAndNotUsedAgain() throws Exception {
+        post(register(0));
+        server.setGzipSupported(false);
+
+        assertEquals(200, post(register(100)).code);
+        assertEquals(1, server.getRequestCount("unsupported"));
+        assertEquals(2, server.getRequestCount("register"));
+
+        server.setGzipSupported(true);
+        post(register(100));
+
+        assertEquals(1, server.getRequestCount("unsupported"));
+        assertEquals(0, server.getRequestCount("gzip"));
+        assertEquals(3, server.getRequestCount("register"));
+    }
+
+    private void assertResponseTooLarge() throws Exception {
+        try {
+            post(register(0));
+            fail("Response of " + OVERSIZED_BODY_LENGTH + " bytes accepted");
+        } catch (IOException e) {
+            assertEquals("Response exceeds " + StarFlightTransport.MAX_RESPONSE_SIZE + " bytes", e.getMessage());
+        }
+    }
+
+    private StarFlightTransport.Response post(List<NameValuePair> parameters) throws IOException {
+        return transport.post(StarFlightMetrics.Action.REGISTER, new Cancellation(), parameters);
+    }
+
+    /**
+     * Creates the parameters of a registration with the supplied number of tags
+     */
+    private static List<NameValuePair> register(int tagCount) {
+        List<NameValuePair> parameters = new ArrayList<>(Arrays.<NameValuePair>asList(
+                new BasicNameValuePair("action", "register"),
+                new BasicNameValuePair("appId", "app"),
+                new BasicNameValuePair("clientSecret", "secret"),
+                new BasicNameValuePair("type", "android"),
+                new BasicNameValuePair("token", "token")));
+
+        if (tagCount > 0) {
+            parameters.add(new BasicNameValuePair("tags", StarFlightClient.join(createTags(tagCount), ",")));
+        }
+
+        return parameters;
+    }
+
+    private static String createBody(int length) {
+        StringBuilder body = new StringBuilder(length);
+        body.append("{\"padding\":\"");
+
+        while (body.length() < length - 2) {
+            body.append('x');
+        }
+
+        return body.append("\"}").toString();
+    }
+
+    private static class RecordingMetrics implements StarFlightMetrics {
+        volatile long bytesReceived;
+
+        @Override
+        public void onRequest(Action action, long latencyNanos, int statusCode, long bytesSent, long bytesReceived) {
+            this.bytesReceived = bytesReceived;
+        }
+
+        @Override
+        public void onRetryScheduled(Action action, int attempt, long delayMillis) {
+        }
+
+        @Override
+        public void onCallbackDispatched(long delayNanos) {
+        }
+
+        @Override
+        public void onMessageDispatched(long delayNanos) {
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TagChangesTest {
+
+    @Test
+    public void latestChangeOfTagWins() {
+        TagChanges changes = new TagChanges();
+        changes.add(Arrays.asList("a", "b"), null);
+        changes.remove(Arrays.asList("b", "c"), null);
+        changes.add(Collections.singletonList("c"), null);
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), changes.added);
+        assertEquals(Collections.singleton("b"), changes.removed);
+        assertEquals(new HashSet<>(Arrays.asList("a", "c", "d")), changes.applyTo(Arrays.asList("b", "d")));
+    }
+
+    @Test
+    public void nullTagsAreNoTags() {
+        TagChanges changes = new TagChanges();
+        changes.add(null, null);
+        changes.remove(null, null);
+
+        assertTrue(changes.added.isEmpty());
+        assertTrue(changes.removed.isEmpty());
+        assertEquals(Collections.singleton("a"), changes.applyTo(Collections.singletonList("a")));
+    }
+}
@@ -0,0 +1,94 @@
+package com.starcut.starflight_client_android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagSetTest {
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        TagSet tags = TagSet.of(Arrays.asList("plain", "with,comma", "back\\slash", "both\\,", ",", "\\", ""));
+
+        assertEquals(tags, TagSet.decode(tags.encode()));
+    }
+
+    @Test
+    public void encodeWithoutSpecialCharactersIsJoin() {
+        List<String> tags = Arrays.asList("a", "b", "c");
+
+        assertEquals("a,b,c", TagSet.of(tags).encode());
+        assertEquals(StarFlightClient.join(tags, ","), TagSet.of(tags).encode());
+    }
+
+    @Test
+    public void encodeEscapesCommasAndBackslashes() {
+        assertEquals("a\\,b,c\\\\", TagSet.of(Arrays.asList("a,b", "c\\")).encode());
+    }
+
+    @Test
+    public void decodeEmpty() {
+        assertSame(TagSet.EMPTY, TagSet.decode(null));
+        assertSame(TagSet.EMPTY, TagSet.decode(""));
+    }
+
+    @Test
+    public void decodeKeepsBackslashNotStartingEscape() {
+        assertEquals(Collections.singleton("a\\b"), TagSet.decode("a\\b"));
+        assertEquals(Collections.singleton("a\\"), TagSet.decode("a\\"));
+    }
+
+    @Test
+    public void decodeLegacySplitsAtEveryComma() {
+        // stored by earlier versions for the tags "a\" and "b", which decode would read as the single tag "a,b"
+        assertEquals(new HashSet<>(Arrays.asList("a\\", "b")), TagSet.decodeLegacy("a\\,b"));
+        assertEquals(new HashSet<>(Arrays.asList("a\\\\", "b")), TagSet.decodeLegacy("a\\\\,b"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), TagSet.decodeLegacy("b,a"));
+    }
+
+    @Test
+    public void decodeLegacyMatchesStringSplit() {
+        assertEquals(new HashSet<>(Arrays.asList("", "a")), TagSet.decodeLegacy(",a"));
+        assertEquals(Collections.singleton("a"), TagSet.decodeLegacy("a,,"));
+        assertSame(TagSet.EMPTY, TagSet.decodeLegacy(""));
+        assertSame(TagSet.EMPTY, TagSet.decodeLegacy(null));
+    }
+
+    @Test
+    public void equalsIgnoresOrderAndDuplicates() {
+        TagSet tags = TagSet.of(Arrays.asList("b", "a", "b"));
+
+        assertEquals(TagSet.of(Arrays.asList("a", "b")), tags);
+        assertEquals(TagSet.of(Arrays.asList("a", "b")).getHash(), tags.getHash());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), tags);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")).hashCode(), tags.hashCode());
+        assertFalse(tags.equals(TagSet.of(Arrays.asList("a", "c"))));
+    }
+
+    @Test
+    public void plusAndMinus() {
+        TagSet tags = TagSet.of(Arrays.asList("a", "b"));
+
+        assertEquals(TagSet.of(Arrays.asList("a", "b", "c")), tags.plus(Collections.singleton("c")));
+        assertEquals(TagSet.of(Collections.singleton("b")), tags.minus(Arrays.asList("a", "x")));
+        assertSame(tags, tags.plus(Collections.singleton("a")));
+        assertSame(tags, tags.minus(Collections.singleton("x")));
+    }
+
+    @Test
+    public void chunkKeepsOrderAndSize() {
+        TagSet tags = TagSet.of(Arrays.asList("e", "d", "c", "b", "a"));
+        List<List<String>> chunks = tags.chunk(2);
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"), Collections.singletonList("e")), chunks);
+        assertTrue(TagSet.EMPTY.chunk(2).isEmpty());
+    }
+}